@@ -0,0 +1,136 @@
+package BoolNets;
+
+/**
+ * A summary of how many of a network's nodes are true over its saved states (see {@link BooleanNode#getSavedStates()}),
+ * at several levels of detail, so that the activity of any stretch of steps, however long, can be found quickly.
+ *
+ * The finest level counts the true states in each block of steps. The blocks are a power of two steps long, no shorter
+ * than needed to keep the finest level to at most {@link #MAX_BLOCKS} blocks. Each coarser level merges pairs of blocks
+ * of the level below, up to a level with a single block. The whole pyramid takes at most twice the space of the finest
+ * level, whatever the number of steps.
+ */
+public class ActivityPyramid {
+
+    //The most blocks in the finest level
+    private static final int MAX_BLOCKS = 1 << 16;
+
+    private final int nodeCount;
+    private final int stepCount;
+
+    //log2 of the number of steps in each block of the finest level
+    private final int blockShift;
+
+    //For each level, from finest to coarsest, the number of true states in each block
+    private final long[][] levels;
+
+    /**
+     * Count the true states in the given histories, e.g. the saved states of each of a network's nodes. Takes time in
+     * proportion to the number of histories times the number of states divided by 64, so for long trajectories should
+     * be made away from the JavaFX thread. The histories must not change meanwhile, so should be copies (see
+     * {@link StateHistory#copy()}) of any which might.
+     *
+     * @param histories The states of each node
+     */
+    public ActivityPyramid(StateHistory[] histories) {
+        int steps = 0;
+        for (StateHistory history : histories) {
+            steps = Math.max(steps, history.size());
+        }
+        this.nodeCount = histories.length;
+        this.stepCount = steps;
+
+        int shift = 0;
+        while ((((long) steps + (1L << shift) - 1) >>> shift) > MAX_BLOCKS) {
+            shift++;
+        }
+        this.blockShift = shift;
+
+        long[] finest = new long[Math.max(1, (int) (((long) steps + (1L << shift) - 1) >>> shift))];
+        for (StateHistory history : histories) {
+            countStates(history, finest);
+        }
+
+        int levelCount = 1;
+        for (int blocks = finest.length; blocks > 1; blocks = (blocks + 1) >>> 1) {
+            levelCount++;
+        }
+        this.levels = new long[levelCount][];
+        levels[0] = finest;
+        for (int level = 1; level < levelCount; level++) {
+            long[] below = levels[level - 1];
+            long[] counts = new long[(below.length + 1) >>> 1];
+            for (int block = 0; block < below.length; block++) {
+                counts[block >>> 1] += below[block];
+            }
+            levels[level] = counts;
+        }
+    }
+
+    /**
+     * Add the true states of the given history to the counts of the finest blocks
+     */
+    private void countStates(StateHistory history, long[] counts) {
+        int words = (history.size() + 63) >>> 6;
+        if (blockShift >= 6) {
+            //Each word lies in a single block
+            for (int w = 0; w < words; w++) {
+                counts[w >>> (blockShift - 6)] += Long.bitCount(history.getWord(w));
+            }
+        } else {
+            //Each word is split across 64 / blockSize blocks
+            int blockSize = 1 << blockShift;
+            long mask = (1L << blockSize) - 1;
+            for (int w = 0; w < words; w++) {
+                long word = history.getWord(w);
+                if (word == 0L) {
+                    continue;
+                }
+                int firstBlock = w << (6 - blockShift);
+                for (int offset = 0; offset < 64; offset += blockSize) {
+                    int bits = Long.bitCount((word >>> offset) & mask);
+                    if (bits != 0) {
+                        counts[firstBlock + (offset >>> blockShift)] += bits;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of steps summarised, which is the largest number of saved states of any node
+     */
+    public int getStepCount() {
+        return stepCount;
+    }
+
+    /**
+     * Find the fraction of true states in the given steps, from the coarsest level whose blocks are no longer than the
+     * steps asked for. Since whole blocks are counted, steps just before and after the given ones may be included.
+     *
+     * @param firstStep The first step
+     * @param endStep   One after the last step
+     * @return The fraction, from 0 to 1, of the states of all the nodes in the given steps which are true, or 0 if
+     * there are no such steps
+     */
+    public double getActivity(int firstStep, int endStep) {
+        firstStep = Math.max(0, firstStep);
+        endStep = Math.min(stepCount, endStep);
+        if (firstStep >= endStep || nodeCount == 0) {
+            return 0;
+        }
+        int level = 0;
+        while (level + 1 < levels.length && (1L << (blockShift + level + 1)) <= endStep - firstStep) {
+            level++;
+        }
+        int shift = blockShift + level;
+        int firstBlock = firstStep >>> shift;
+        int lastBlock = (endStep - 1) >>> shift;
+        long trueStates = 0;
+        for (int block = firstBlock; block <= lastBlock; block++) {
+            trueStates += levels[level][block];
+        }
+        long firstCountedStep = (long) firstBlock << shift;
+        long endCountedStep = Math.min(stepCount, ((long) lastBlock + 1) << shift);
+        return (double) trueStates / ((endCountedStep - firstCountedStep) * nodeCount);
+    }
+}
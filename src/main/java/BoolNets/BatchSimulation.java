@@ -0,0 +1,179 @@
+package BoolNets;
+
+import java.util.Arrays;
+
+/**
+ * Simulates a {@link CompiledNetwork} from many start states at once by bit-slicing. Each start state is given a lane,
+ * and bit l of a node's value word holds the value of that node in lane l, so one pass of the vertex function logic
+ * over a word advances 64 start states together. More than 64 start states use several words per node.
+ *
+ * Every time step is stored node-major: the words of node n at time step t begin at
+ * (t * nodeCount + n) * laneWords. Use {@link #getState(int, int, int)} or {@link #copyState(int, int, long[])} to read
+ * back the trajectory of a single lane.
+ */
+public class BatchSimulation {
+
+    //Functions with more inputs than this are evaluated lane by lane instead of by a bit-sliced multiplexer,
+    //since the multiplexer needs 2^arity operations per word
+    private static final int MUX_MAX_ARITY = 8;
+
+    private final CompiledNetwork network;
+
+    //How many start states are being simulated
+    private final int laneCount;
+
+    //How many longs hold the lanes of one node
+    private final int laneWords;
+
+    //How many longs make up one time step of the whole batch
+    private final int stride;
+
+    //All the computed time steps, back to back
+    private long[] data;
+
+    //How many time steps are stored, including the initial one
+    private int length;
+
+    //Working space for the multiplexer
+    private final long[] scratch = new long[1 << MUX_MAX_ARITY];
+
+    /**
+     * @param network       The compiled network to simulate
+     * @param initialStates One packed network state (as used by {@link NetworkTrajectory}) for each lane
+     */
+    BatchSimulation(CompiledNetwork network, long[][] initialStates) {
+        this.network = network;
+        this.laneCount = initialStates.length;
+        this.laneWords = CompiledNetwork.wordsForBits(laneCount);
+        this.stride = network.getNodeCount() * laneWords;
+        this.data = new long[Math.max(stride, 1) * 16];
+        for (int lane = 0; lane < laneCount; lane++) {
+            for (int n = 0; n < network.getNodeCount(); n++) {
+                if (CompiledNetwork.getBit(initialStates[lane], n)) {
+                    data[n * laneWords + (lane >>> 6)] |= 1L << lane;
+                }
+            }
+        }
+        this.length = 1;
+    }
+
+    /**
+     * Step every lane forwards until the state at the given time step has been computed.
+     *
+     * @param endTimeStep The last time step that should be available
+     */
+    public void run(int endTimeStep) {
+        if (endTimeStep < length) {
+            return;
+        }
+        long required = (long) (endTimeStep + 1) * stride;
+        if (required > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("The batch is too large to be stored: " + Integer.toString(endTimeStep + 1) + " time steps.");
+        }
+        if (required > data.length) {
+            data = Arrays.copyOf(data, (int) Math.min(Math.max(required, (long) data.length * 2), Integer.MAX_VALUE - 8));
+        }
+        for (int t = length - 1; t < endTimeStep; t++) {
+            step(t * stride, (t + 1) * stride);
+        }
+        length = endTimeStep + 1;
+    }
+
+    private void step(int inOffset, int outOffset) {
+        for (int n = 0; n < network.getNodeCount(); n++) {
+            int arity = network.getInputCount(n);
+            long[] table = network.getTruthTable(n);
+            for (int word = 0; word < laneWords; word++) {
+                long value;
+                if (arity <= MUX_MAX_ARITY) {
+                    value = multiplex(n, arity, table, inOffset + word);
+                } else {
+                    value = evaluateLanes(n, arity, table, inOffset + word, word);
+                }
+                data[outOffset + n * laneWords + word] = value;
+            }
+        }
+    }
+
+    /**
+     * Evaluate a truth table on 64 lanes at once. The table entries are spread across all lanes and then halved once
+     * per input, each pair of entries differing only in that input being merged by selecting on the input's lanes.
+     */
+    private long multiplex(int n, int arity, long[] table, int offset) {
+        int size = 1 << arity;
+        for (int i = 0; i < size; i++) {
+            scratch[i] = -((table[i >>> 6] >>> i) & 1L);
+        }
+        for (int j = 0; j < arity; j++) {
+            long input = data[offset + network.getInput(n, j) * laneWords];
+            size >>>= 1;
+            for (int i = 0; i < size; i++) {
+                scratch[i] = (scratch[i << 1] & ~input) | (scratch[(i << 1) + 1] & input);
+            }
+        }
+        return scratch[0];
+    }
+
+    /**
+     * Evaluate a truth table separately in each of the (up to) 64 lanes of a word.
+     */
+    private long evaluateLanes(int n, int arity, long[] table, int offset, int word) {
+        long value = 0L;
+        int lanes = Math.min(64, laneCount - (word << 6));
+        for (int lane = 0; lane < lanes; lane++) {
+            int index = 0;
+            for (int j = 0; j < arity; j++) {
+                index |= (int) ((data[offset + network.getInput(n, j) * laneWords] >>> lane) & 1L) << j;
+            }
+            value |= ((table[index >>> 6] >>> index) & 1L) << lane;
+        }
+        return value;
+    }
+
+    /**
+     * @param lane      The lane of a start state
+     * @param timeStep  A time step in the range [0, {@link #getLength()})
+     * @param nodeIndex The compiled index of a node
+     * @return The value of the node at the given time step, when started from the given lane's start state
+     */
+    public boolean getState(int lane, int timeStep, int nodeIndex) {
+        return ((data[timeStep * stride + nodeIndex * laneWords + (lane >>> 6)] >>> lane) & 1L) != 0;
+    }
+
+    /**
+     * @param lane     The lane of a start state
+     * @param timeStep A time step in the range [0, {@link #getLength()})
+     * @param node     A node of the simulated network
+     * @return The value of the node at the given time step, when started from the given lane's start state
+     */
+    public boolean getState(int lane, int timeStep, BooleanNode node) {
+        return getState(lane, timeStep, node.getEngineIndex());
+    }
+
+    /**
+     * Gather the packed network state (as used by {@link NetworkTrajectory}) of one lane at one time step.
+     *
+     * @param lane     The lane of a start state
+     * @param timeStep A time step in the range [0, {@link #getLength()})
+     * @param target   An array of at least {@link CompiledNetwork#getWordCount()} longs
+     */
+    public void copyState(int lane, int timeStep, long[] target) {
+        Arrays.fill(target, 0, network.getWordCount(), 0L);
+        for (int n = 0; n < network.getNodeCount(); n++) {
+            if (getState(lane, timeStep, n)) {
+                target[n >>> 6] |= 1L << n;
+            }
+        }
+    }
+
+    public int getLaneCount() {
+        return laneCount;
+    }
+
+    /**
+     * @return The number of time steps stored, including the initial one
+     */
+    public int getLength() {
+        return length;
+    }
+}
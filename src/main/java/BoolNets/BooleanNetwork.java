@@ -3,14 +3,23 @@ package BoolNets;
 
 import Parser.DialogMaker;
 import Utilities.Pair;
+import Sound.MIDIFileStream;
+import Sound.NoteEvents;
 import Sound.SoundMaker;
 
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiUnavailableException;
+import java.io.IOException;
 import java.text.Collator;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 public class BooleanNetwork {
 
@@ -21,8 +30,10 @@ public class BooleanNetwork {
     //How far the computation of future states has currently gone.
     private transient int bufferPosition;
 
-    //Mapping from Identifiers' UUID Strings to the BooleanNodes to which they belong
-    private HashMap<String, BooleanNode> nodes;
+    //The nodes of the network, positioned by the index of their Identifier_Node
+    private ArrayList<BooleanNode> nodes;
+    //Symbol table from node labels to node indices
+    private HashMap<String, Integer> nodeIndices;
     //Mapping from unique identification strings (variable names) to their corresponding NetworkState instances;
     private HashMap<String, NetworkState> stateVariables;
     //Mapping from unique identification strings (variable names) to their corresponding VertexFunction instances;
@@ -38,6 +49,46 @@ public class BooleanNetwork {
 
     private Boolean resting = false;
 
+    //Should the network dynamics be computed by the compiled engine (packed long[] states stepped in a single loop),
+    //or by having each BooleanNode buffer its own list of states?
+    private boolean compiledEngine = true;
+
+    //The frozen form of the network used by the compiled engine. Rebuilt when the network structure changes.
+    private transient CompiledNetwork compiledNetwork;
+
+    //Should the compiled engine generate a class with straight-line step code for this network (see StepFunctionGenerator)?
+    private boolean generatedStepFunction = false;
+
+    //Computes each time step for the compiled engine. Either the compiledNetwork itself or a generated class.
+    private transient StepFunction stepFunction;
+
+    //The states computed by the compiled engine since the start state was last set.
+    private transient NetworkTrajectory trajectory;
+
+    //The compiled trajectory from before the network was last changed, and the nodes whose states it may have wrong
+    //since then (the forward cone of every change), or null if there is none. Only the cone is stepped to replace it.
+    private transient NetworkTrajectory staleTrajectory;
+    private transient Set<BooleanNode> staleCone;
+
+    //Holds trajectories already computed from other start states (or by structurally identical networks), for reuse
+    private transient TrajectoryCache trajectoryCache;
+
+    //By default, networks with at least this many nodes have each time step split between the threads of the common
+    //ForkJoinPool. Smaller networks are stepped on the calling thread, since a step is too short to be worth splitting.
+    public static final int DEFAULT_PARALLEL_NODE_THRESHOLD = 16384;
+
+    //The fewest nodes for which this network's time steps are split between threads (see setParallelNodeThreshold)
+    private int parallelNodeThreshold = DEFAULT_PARALLEL_NODE_THRESHOLD;
+
+    //The fewest nodes worth giving to a single thread when a time step is split
+    private static final int MIN_PARALLEL_PART_NODES = 2048;
+
+    //How many note events are found before they are passed on to be sequenced or written
+    private static final int NOTE_EVENT_CHUNK = 4096;
+
+    //Should sequencing read the network's states from a TrajectoryCursor, without keeping any computed states?
+    private boolean streaming = false;
+
 
     /*
      * CONSTRUCTOR and INITIALISATION
@@ -62,7 +113,8 @@ public class BooleanNetwork {
     private void initialiseNetwork() {
         this.transportPosition = 0;
         this.bufferPosition = 0;
-        this.nodes = new HashMap<String, BooleanNode>();
+        this.nodes = new ArrayList<>();
+        this.nodeIndices = new HashMap<>();
         this.stateVariables = new HashMap<>();
         this.vertexFunctionVariables = new HashMap<>();
     }
@@ -72,10 +124,15 @@ public class BooleanNetwork {
         this.bufferPosition = 0;
         instrumentIndex = 0;
         this.nodes.clear();
+        this.nodeIndices.clear();
+        this.compiledNetwork = null;
+        this.stepFunction = null;
+        this.trajectory = null;
+        this.staleTrajectory = null;
+        this.staleCone = null;
         this.stateVariables.clear();
         this.vertexFunctionVariables.clear();
         this.soundMaker.clear();
-        Identifier_Node.clear();
     }
 
     /*
@@ -92,12 +149,17 @@ public class BooleanNetwork {
      * @throws Exception If the given label has already been assigned to another node
      */
     public BooleanNode addNode(boolean initialState, String noteName, String label) throws Exception {
-        BooleanNode node = new BooleanNode(this, initialState, noteName, label);
-        this.nodes.put(node.getID().getUUID().toString(), node);
+        if (this.nodeIndices.containsKey(label)) {
+            throw new Exception("The node label " + "'" + label + "'" + " has already been assigned in the network '" + this.name + "'.");
+        }
+        BooleanNode node = new BooleanNode(this, new Identifier_Node(this.nodes.size(), label), initialState, noteName);
+        this.nodes.add(node);
+        this.nodeIndices.put(label, node.getID().getIndex());
+        this.compiledNetwork = null;
 
-        //When a new node is added, its rules may change the network dynamics,
-        //so we need to clear the previously computed states.
-        clearNodeBuffers();
+        //A new node has no effect on the other nodes until it is connected to them, so only its own states
+        //(just the initial state so far) need computing. The other nodes keep their computed states.
+        invalidateForwardCone(Collections.singletonList(node));
 
         return node;
     }
@@ -112,14 +174,26 @@ public class BooleanNetwork {
      * @throws Exception If the given name has already been used.
      */
     public void addStartState(String stateName, ArrayList<String> nodeLabels, boolean state) throws Exception {
+        if (this.stateVariables.containsKey(stateName)) {
+            throw new Exception("The state name " + "'" + stateName + "'" + " is already in use.");
+        }
         ArrayList<Identifier_Node> nodeIDs = new ArrayList<>();
         for (String label : nodeLabels) {
-            nodeIDs.add(Identifier_Node.getIdentifierByLabel(this.name, label));
+            nodeIDs.add(getIdentifierByLabel(label));
         }
         NetworkState networkState = new NetworkState(stateName, nodeIDs, state);
         this.stateVariables.put(stateName, networkState);
     }
 
+    /**
+     * @return The names of the NetworkStates added to this network, in alphabetical order
+     */
+    public ArrayList<String> getStartStateNames() {
+        ArrayList<String> names = new ArrayList<>(this.stateVariables.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
     /**
      * Set the starting state of the network by specifying a collection of nodes whose
      * values will all be set to either true or false. The remaining nodes will be set to the opposite state.
@@ -128,13 +202,14 @@ public class BooleanNetwork {
      * @param state      The state in which to start the given nodes.
      */
     public void setStartState(ArrayList<String> nodeLabels, boolean state) {
-        for (BooleanNode node : this.nodes.values()) {
-            node.setInitialState(!state);
+        HashMap<BooleanNode, Boolean> initialStates = new HashMap<>();
+        for (BooleanNode node : this.nodes) {
+            initialStates.put(node, !state);
         }
         for (String label : nodeLabels) {
-            this.getNodeByID(Identifier_Node.getIdentifierByLabel(this.name, label)).setInitialState(state);
+            initialStates.put(this.getNodeByLabel(label), state);
         }
-        clearNodeBuffers();
+        applyInitialStates(initialStates);
     }
 
     /**
@@ -149,19 +224,36 @@ public class BooleanNetwork {
             boolean state = networkState.getTruthValue();
             ArrayList<Identifier_Node> nodeIDs = networkState.getNodeIDs();
 
-            for (BooleanNode node : this.nodes.values()) {
-                node.setInitialState(!state);
+            HashMap<BooleanNode, Boolean> initialStates = new HashMap<>();
+            for (BooleanNode node : this.nodes) {
+                initialStates.put(node, !state);
             }
             for (Identifier_Node nodeID : nodeIDs) {
-                this.getNodeByID(nodeID).setInitialState(state);
-                System.out.println("Set " + nodeID.getLabel() + " to " + state);
+                initialStates.put(this.getNodeByID(nodeID), state);
             }
-            clearNodeBuffers();
+            applyInitialStates(initialStates);
         }else{
             resting = true;
         }
     }
 
+    /**
+     * Give each node its new initial state, and discard the computed states of the nodes affected by any change.
+     *
+     * @param initialStates The new initial state of every node
+     */
+    private void applyInitialStates(HashMap<BooleanNode, Boolean> initialStates) {
+        ArrayList<BooleanNode> changedNodes = new ArrayList<>();
+        for (BooleanNode node : this.nodes) {
+            boolean initialState = initialStates.get(node);
+            if (node.getInitialState() != initialState) {
+                node.setInitialState(initialState);
+                changedNodes.add(node);
+            }
+        }
+        invalidateForwardCone(changedNodes);
+    }
+
 
     /**
      * Add a new named vertex function to the collection (name is a property of the vertex function instance)
@@ -190,18 +282,20 @@ public class BooleanNetwork {
      * @param inputNodeNames     The names of the nodes whose values will be taken as inputs to the vertex function.
      */
     public void setNamedNodeVertexFunction(String nodeName, String vertexFunctionName, ArrayList<String> inputNodeNames) {
-        BooleanNode node = this.nodes.get(Identifier_Node.getIdentifierByLabel(this.name, nodeName).getUUID().toString());
+        BooleanNode node = getNodeByLabel(nodeName);
         VertexFunction vertexFunction = this.vertexFunctionVariables.get(vertexFunctionName);
 
         BooleanNode[] inputs = new BooleanNode[inputNodeNames.size()];
         for (int i = 0; i < inputNodeNames.size(); i++) {
-            inputs[i] = getNodeByID(Identifier_Node.getIdentifierByLabel(this.name, inputNodeNames.get(i)));
+            inputs[i] = getNodeByLabel(inputNodeNames.get(i));
 
         }
 
         if (vertexFunction.getArity() == inputs.length) {
             node.setVertexFunction(vertexFunction);
             node.setInputNodes(inputs);
+            this.compiledNetwork = null;
+            invalidateForwardCone(Collections.singletonList(node));
         } else {
             DialogMaker.showErrorDialog("Vertex Function Arity Error",
                     "The given input array does not match the arity of the vertex function '" + vertexFunctionName +"' . Input count: " + Integer.toString(inputs.length) + ", Expected: " + Integer.toString(vertexFunction.getArity()));
@@ -216,38 +310,255 @@ public class BooleanNetwork {
      */
 
     /**
-     * Compute the states of the network up to the given time-step. Each node stores its own series of states.
+     * Compute the states of the network up to the given time-step.
      *
      * @param endPosition The time-step at which to stop computing the series of network states
      */
-    //TODO use concurrency here? Also detect loop/steady state
     private void bufferNetwork(int endPosition) {
         if (endPosition > this.bufferPosition) {
-            for (BooleanNode bn : this.nodes.values()) {
-                bn.bufferStates(endPosition);
+            if (compiledEngine) {
+                bufferCompiled(endPosition);
+            } else {
+                bufferInterpreted(endPosition);
             }
             this.bufferPosition = endPosition;
         }
     }
 
+    /**
+     * Compute the states of the network up to the given time-step without the compiled engine. Each node stores its
+     * own series of states. The network is stepped one whole time step at a time: the states at time step t+1 are
+     * computed for every node from the states at time step t, which have all already been computed. No node ever
+     * needs to buffer another node, so there is no recursion however long the run or the chains of inputs.
+     *
+     * @param endPosition The time-step at which to stop computing the series of network states
+     */
+    void bufferInterpreted(int endPosition) {
+        BooleanNode[] nodeArray = this.nodes.toArray(new BooleanNode[0]);
+        int startPosition = endPosition;
+        for (BooleanNode bn : nodeArray) {
+            startPosition = Math.min(startPosition, bn.getNodeBufferPosition());
+        }
+        for (int t = startPosition; t < endPosition; t++) {
+            for (BooleanNode bn : nodeArray) {
+                //Nodes can be further ahead if they were buffered before other nodes were added
+                if (bn.getNodeBufferPosition() == t) {
+                    bn.bufferNextState();
+                }
+            }
+        }
+    }
+
+    /**
+     * Compute the states of the network up to the given time-step using the compiled engine. The network is
+     * compiled first if its structure has changed since it was last compiled. If the trajectory has been discarded by
+     * a change to some of the nodes, and none is cached for the new start state, the new trajectory is made from the
+     * old one by stepping only the nodes the change can affect, for as many time steps as the old one had been asked for.
+     *
+     * @param endPosition The time-step at which to stop computing the series of network states
+     */
+    void bufferCompiled(int endPosition) {
+        getCompiledNetwork();
+        if (trajectory == null) {
+            if (trajectoryCache != null) {
+                trajectory = trajectoryCache.getTrajectory(compiledNetwork, compiledNetwork.getInitialState());
+            } else {
+                trajectory = new NetworkTrajectory(compiledNetwork.getInitialState());
+            }
+            if (staleTrajectory != null && trajectory.getLength() == 1 && !trajectory.isCyclic()) {
+                int[] changedNodes = new int[staleCone.size()];
+                int i = 0;
+                for (BooleanNode node : staleCone) {
+                    changedNodes[i++] = node.getEngineIndex();
+                }
+                Arrays.sort(changedNodes);
+                //The steps the old trajectory was asked for are likely to be asked for again, and are cheap to remake
+                trajectory.extendFrom(staleTrajectory, compiledNetwork, changedNodes,
+                        Math.max(endPosition, staleTrajectory.getEndTimeStep()));
+            }
+            staleTrajectory = null;
+            staleCone = null;
+        }
+        int nodeCount = compiledNetwork.getNodeCount();
+        int partCount = Math.min(ForkJoinPool.getCommonPoolParallelism(), nodeCount / MIN_PARALLEL_PART_NODES);
+        if (nodeCount >= parallelNodeThreshold && partCount > 1) {
+            //When a time step is split, the compiled tables are used rather than any generated step function
+            trajectory.extendParallel(compiledNetwork, endPosition, partCount);
+        } else {
+            trajectory.extend(stepFunction, endPosition);
+        }
+    }
+
+    /**
+     * @return The compiled form of this network, compiling it first if its structure has changed since it was last compiled
+     */
+    CompiledNetwork getCompiledNetwork() {
+        if (compiledNetwork == null) {
+            compiledNetwork = new CompiledNetwork(this.nodes);
+            if (generatedStepFunction) {
+                stepFunction = StepFunctionGenerator.generate(compiledNetwork);
+            } else {
+                stepFunction = compiledNetwork;
+            }
+            trajectory = null;
+        }
+        return compiledNetwork;
+    }
+
+    /**
+     * Simulate the network from each of the given named start states at once, using bit-sliced evaluation (see
+     * {@link BatchSimulation}). This does not change the network's own start state or buffered states.
+     *
+     * @param stateNames The names of NetworkState variables. The i-th state is simulated in lane i of the result.
+     * @param steps      The number of time steps to simulate
+     * @return The simulation, holding the states of every lane for time steps 0 to 'steps'
+     */
+    public BatchSimulation simulateStartStates(ArrayList<String> stateNames, int steps) {
+        CompiledNetwork network = getCompiledNetwork();
+        long[][] initialStates = new long[stateNames.size()][];
+        for (int i = 0; i < stateNames.size(); i++) {
+            initialStates[i] = getPackedStartState(stateNames.get(i));
+        }
+        BatchSimulation simulation = new BatchSimulation(network, initialStates);
+        simulation.run(steps);
+        return simulation;
+    }
+
+    /**
+     * Follow the network from its current initial states, keeping only a window of the most recent states (see
+     * {@link TrajectoryCursor}). This does not change the network's own buffered states.
+     *
+     * @param windowSize How many of the most recent states the cursor should keep, including the current one
+     * @return A cursor positioned at time step 0
+     */
+    public TrajectoryCursor getTrajectoryCursor(int windowSize) {
+        CompiledNetwork network = getCompiledNetwork();
+        return new TrajectoryCursor(stepFunction, network.getInitialState(), windowSize);
+    }
+
+    /**
+     * Follow the network from the named start state, keeping only a window of the most recent states (see
+     * {@link TrajectoryCursor}). This does not change the network's own start state or buffered states.
+     *
+     * @param stateName  The name of a NetworkState variable
+     * @param windowSize How many of the most recent states the cursor should keep, including the current one
+     * @return A cursor positioned at time step 0
+     */
+    public TrajectoryCursor getTrajectoryCursor(String stateName, int windowSize) {
+        long[] initialState = getPackedStartState(stateName);
+        return new TrajectoryCursor(stepFunction, initialState, windowSize);
+    }
+
+    /**
+     * @param stateName The name of a NetworkState variable
+     * @return The packed global state (see {@link CompiledNetwork}) described by the named state
+     */
+    private long[] getPackedStartState(String stateName) {
+        CompiledNetwork network = getCompiledNetwork();
+        NetworkState networkState = stateVariables.get(stateName);
+        if (networkState == null) {
+            throw new IllegalArgumentException("The state name '" + stateName + "' has not been defined.");
+        }
+        long[] state = new long[network.getWordCount()];
+        boolean value = networkState.getTruthValue();
+        if (!value) {
+            for (int n = 0; n < network.getNodeCount(); n++) {
+                state[n >>> 6] |= 1L << n;
+            }
+        }
+        for (Identifier_Node nodeID : networkState.getNodeIDs()) {
+            int n = getNodeByID(nodeID).getEngineIndex();
+            if (value) {
+                state[n >>> 6] |= 1L << n;
+            } else {
+                state[n >>> 6] &= ~(1L << n);
+            }
+        }
+        return state;
+    }
+
+    /**
+     * @param node A node in this network
+     * @param position The time step at which to find the state of the node
+     * @return The state computed for the node by the compiled engine, buffering the network if necessary
+     */
+    boolean getCompiledState(BooleanNode node, int position) {
+        if (compiledNetwork == null || trajectory == null || position > trajectory.getEndTimeStep()) {
+            bufferCompiled(position);
+        }
+        if (position > bufferPosition) {
+            bufferPosition = position;
+        }
+        return trajectory.getState(position, node.getEngineIndex());
+    }
+
+    /**
+     * @return The last time step to which this network has been buffered by the compiled engine. The trajectory it
+     * follows may have been computed further, if it is shared through the trajectory cache, but those steps aren't
+     * counted.
+     */
+    int getCompiledBufferPosition() {
+        return bufferPosition;
+    }
+
     /**
      * Have each node add its current buffered data to a list. This will be saved even if the node is re-buffered.
      * We can use it as a history of the nodes' states throughout a sequence with several initialisations and re-bufferings.
      */
     void saveNetworkBuffers(int duration, boolean isResting) {
-
-        for (BooleanNode bn : this.nodes.values()) {
+        if (streaming) {
+            return;
+        }
+        for (BooleanNode bn : this.nodes) {
             bn.saveStateBuffer(duration,isResting);
         }
     }
 
+    /**
+     * Discard the computed states of the given nodes and of every node whose states depend on them, directly or
+     * through other nodes (the forward cone of the changed nodes). The computed states of every other node are kept,
+     * and are not computed again when the network is next buffered.
+     *
+     * The compiled engine's trajectory is set aside, with the cone, so that when the network is next buffered only the
+     * nodes in the cone are stepped, and the states of every other node are copied from it (see
+     * {@link NetworkTrajectory#extendFrom(NetworkTrajectory, CompiledNetwork, int[], int)}). No node outside the cone
+     * is visited.
+     *
+     * @param changedNodes The nodes whose initial state, inputs or vertex function have changed
+     */
+    private void invalidateForwardCone(Collection<BooleanNode> changedNodes) {
+        if (changedNodes.isEmpty()) {
+            return;
+        }
+        Set<BooleanNode> cone = Collections.newSetFromMap(new IdentityHashMap<>());
+        ArrayDeque<BooleanNode> toVisit = new ArrayDeque<>(changedNodes);
+        while (!toVisit.isEmpty()) {
+            BooleanNode node = toVisit.poll();
+            if (cone.add(node)) {
+                node.clearBuffer();
+                toVisit.addAll(node.getOutputNodes());
+            }
+        }
+        if (this.trajectory != null) {
+            this.staleTrajectory = this.trajectory;
+            this.staleCone = cone;
+        } else if (this.staleTrajectory != null) {
+            this.staleCone.addAll(cone);
+        }
+        this.trajectory = null;
+        this.bufferPosition = 0;
+    }
+
     /**
      * Delete the computed series of network states for every node, re-adding only the initial state to the series.
      */
     private void clearNodeBuffers() {
-        for (BooleanNode bn : this.nodes.values()) {
+        for (BooleanNode bn : this.nodes) {
             bn.clearBuffer();
         }
+        this.trajectory = null;
+        this.staleTrajectory = null;
+        this.staleCone = null;
         this.bufferPosition = 0;
     }
 
@@ -256,37 +567,108 @@ public class BooleanNetwork {
      */
 
     /**
-     * Line up the sequence of notes in the sequencer, ready to be sent to the synthesiser. The sequence
-     * is calculated from the precomputed states in the state buffer for each node.
+     * Line up the sequence of notes in the sequencer, ready to be sent to the synthesiser. The notes of all the nodes
+     * are found at once, by comparing the packed state of the network at each time step with the state at the step
+     * before (see {@link NoteEdgeDetector}). The states are taken from the buffered states, or, when streaming, from a
+     * {@link TrajectoryCursor} stepped alongside, so that no series of states is ever stored. The notes are passed to
+     * the SoundMaker in pieces, so the notes found are never stored either.
      *
      * @param startStep the time step at which to start the sequence
      * @param howManySteps The number of steps from the data for which to sequence it
-     * @throws InvalidMidiDataException When {@link SoundMaker#sequenceNodeData(ArrayList, int, Integer, String, Boolean)} does so.
+     * @throws InvalidMidiDataException When {@link SoundMaker#sequenceNoteEvents(String, int, int, NoteEvents)} does so.
      */
     private void sequenceNodeNotes(int startStep, int howManySteps) throws InvalidMidiDataException {
-        //All the beats for a single node (all its sequential states) are sequenced at once.
-        //This flag to indicates that one node has already been sequenced.
-        //It is used to prevent multiple MetaMessages being sent by the SoundMaker for each beat,
-        //when each node passes that beat.
-        Boolean sentOne = false;
-        for (BooleanNode node : this.nodes.values()) {
-            Integer noteIndex = node.getMidiNote();
-            ArrayList<Integer> noteIndices = new ArrayList<Integer>(howManySteps);
-            for (int i = 0; i <= howManySteps; i++) {
-                if (!resting) {
-                    if (node.getStateAtTransportPosition(i)) {
-                        noteIndices.add(noteIndex);
-                    } else {
-                        noteIndices.add(null);
-                    }
-                } else {
-                    noteIndices.add(null);
-                }
+        int channel = this.soundMaker.startNetworkSequence(this.name, instrumentIndex);
+        //MetaMessages are sent at every beat, to trigger the visualisation
+        this.soundMaker.sequenceBeats(this.name, startStep, howManySteps);
+        if (resting) {
+            return;
+        }
+        TrajectoryCursor cursor = streaming ? getTrajectoryCursor(1) : null;
+        NoteEdgeDetector detector = new NoteEdgeDetector(getNodeNotes());
+        NoteEvents events = new NoteEvents();
+        long[] state = new long[(this.nodes.size() + 63) >>> 6];
+        for (int i = 0; i < howManySteps; i++) {
+            copyPackedState(cursor, i, state);
+            detector.detect(state, i, events);
+            if (events.size() >= NOTE_EVENT_CHUNK) {
+                this.soundMaker.sequenceNoteEvents(this.name, channel, startStep, events);
+                events.clear();
+            }
+        }
+        //Every note is ended at the final step
+        detector.finish(howManySteps, events);
+        this.soundMaker.sequenceNoteEvents(this.name, channel, startStep, events);
+    }
+
+    /**
+     * Write the network's notes to a MIDI file as a {@link TrajectoryCursor} steps through the time steps in turn,
+     * finding the notes as {@link #sequenceNodeNotes(int, int)} does. The notes are written in pieces as they are
+     * found, so neither the states nor the notes are stored. The network is started from its current start state.
+     *
+     * @param stream       The file to write to
+     * @param channel      The channel returned by {@link MIDIFileStream#startTrack(Integer)} for the current track
+     * @param startStep    The time step at which to start. Not before the last note written to the current track.
+     * @param howManySteps The number of steps for which to write the network
+     * @throws InvalidMidiDataException When a note cannot be written
+     * @throws IOException              When the file cannot be written
+     */
+    public void writeNodeNotes(MIDIFileStream stream, int channel, int startStep, int howManySteps) throws InvalidMidiDataException, IOException {
+        if (resting) {
+            return;
+        }
+        TrajectoryCursor cursor = getTrajectoryCursor(1);
+        NoteEdgeDetector detector = new NoteEdgeDetector(getNodeNotes());
+        NoteEvents events = new NoteEvents();
+        long[] state = new long[(this.nodes.size() + 63) >>> 6];
+        for (int i = 0; i < howManySteps; i++) {
+            copyPackedState(cursor, i, state);
+            detector.detect(state, i, events);
+            if (events.size() >= NOTE_EVENT_CHUNK) {
+                stream.writeNoteEvents(channel, startStep, events);
+                events.clear();
             }
-            this.soundMaker.sequenceNodeData(noteIndices, startStep, instrumentIndex, this.name, !sentOne);
-            sentOne = true;
         }
+        detector.finish(howManySteps, events);
+        stream.writeNoteEvents(channel, startStep, events);
+    }
 
+    /**
+     * @return The pitch of each node, in the order of the nodes (which is also their compiled order), or -1 for nodes
+     * without a note
+     */
+    int[] getNodeNotes() {
+        int[] notes = new int[this.nodes.size()];
+        for (int n = 0; n < notes.length; n++) {
+            Integer note = this.nodes.get(n).getMidiNote();
+            notes[n] = note == null ? -1 : note;
+        }
+        return notes;
+    }
+
+    /**
+     * Copy the packed state of the network at the given time step into the given array. Bit n is the state of the n-th
+     * node, as in {@link CompiledNetwork}.
+     *
+     * @param cursor A cursor to advance to the time step and read, or null to read the buffered states
+     */
+    private void copyPackedState(TrajectoryCursor cursor, int step, long[] state) {
+        if (cursor != null) {
+            cursor.advanceTo(step);
+            cursor.copyState(step, state);
+        } else if (compiledEngine) {
+            if (compiledNetwork == null || trajectory == null || step > trajectory.getEndTimeStep()) {
+                bufferCompiled(step);
+            }
+            trajectory.copyState(step, state);
+        } else {
+            Arrays.fill(state, 0L);
+            for (int n = 0; n < this.nodes.size(); n++) {
+                if (this.nodes.get(n).getStateAtTransportPosition(step)) {
+                    state[n >>> 6] |= 1L << n;
+                }
+            }
+        }
     }
 
     /**
@@ -297,12 +679,11 @@ public class BooleanNetwork {
      * @throws InvalidMidiDataException
      */
     public void playFor(int steps) throws InvalidMidiDataException {
-        if (bufferPosition < steps) {
+        if (bufferPosition < steps && !streaming) {
             bufferNetwork(steps);
         }
         sequenceNodeNotes(0, steps);
         saveNetworkBuffers(bufferPosition,false);
-        printStateBuffer();
         this.soundMaker.play();
     }
 
@@ -320,7 +701,7 @@ public class BooleanNetwork {
      * @throws InvalidMidiDataException
      */
     public void sequenceForDurationFromStep(Integer duration, Integer startStep) throws InvalidMidiDataException {
-            if (bufferPosition < duration) {
+            if (bufferPosition < duration && !streaming) {
                 bufferNetwork(duration);
             }
             sequenceNodeNotes(startStep, duration);
@@ -338,7 +719,7 @@ public class BooleanNetwork {
      * @param note
      */
     public void setNoteForNamedNode(String nodeName, String note) {
-        this.getNodeByID(Identifier_Node.getIdentifierByLabel(this.name, nodeName)).setMIDINote(note);
+        this.getNodeByLabel(nodeName).setMIDINote(note);
     }
 
     /**
@@ -349,19 +730,116 @@ public class BooleanNetwork {
         this.instrumentIndex = instrumentIndex;
     }
 
+    public Integer getInstrumentIndex() {
+        return instrumentIndex;
+    }
+
+    /**
+     * Choose how the dynamics of this network are computed. The compiled engine freezes the network into int-indexed
+     * arrays and steps packed long[] states (see {@link CompiledNetwork}); otherwise each node buffers its own list of
+     * states by evaluating its vertex function on demand. Both produce the same states.
+     * @param compiledEngine true to use the compiled engine
+     */
+    public void setCompiledEngine(boolean compiledEngine) {
+        if (this.compiledEngine != compiledEngine) {
+            this.compiledEngine = compiledEngine;
+            clearNodeBuffers();
+        }
+    }
+
+    public boolean isCompiledEngine() {
+        return compiledEngine;
+    }
+
+    /**
+     * Choose whether sequencing should stream the network's states. When streaming, the states are computed by a
+     * {@link TrajectoryCursor} as the notes are sequenced and then discarded, so memory use does not grow with the
+     * length of the sequence. No buffered or saved states are kept, so there is nothing for the visualisation to show
+     * and cycles are not detected. The compiled network is always used for streaming, whichever engine is chosen.
+     * @param streaming true to stream the network's states during sequencing
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Set where the compiled engine should look for, and keep, trajectories computed from each start state.
+     * @param trajectoryCache The cache to use, or null to compute every trajectory afresh
+     */
+    public void setTrajectoryCache(TrajectoryCache trajectoryCache) {
+        this.trajectoryCache = trajectoryCache;
+        this.trajectory = null;
+        this.staleTrajectory = null;
+        this.staleCone = null;
+        this.bufferPosition = 0;
+    }
+
+    /**
+     * Choose whether the compiled engine should generate a JVM class with this network's vertex functions inlined as
+     * straight-line code (see {@link StepFunctionGenerator}). Generation costs some time whenever the network structure
+     * changes, but pays off when the network is stepped many times. If generation fails, the compiled tables are used.
+     * @param generatedStepFunction true to generate step code for this network
+     */
+    public void setGeneratedStepFunction(boolean generatedStepFunction) {
+        if (this.generatedStepFunction != generatedStepFunction) {
+            this.generatedStepFunction = generatedStepFunction;
+            this.compiledNetwork = null;
+            clearNodeBuffers();
+        }
+    }
+
+    /**
+     * Set how many nodes the network must have for the compiled engine to split each time step between the threads of
+     * the common ForkJoinPool. Splitting only pays off when a step takes much longer than handing it out, which depends
+     * on the machine, so this can be tuned. The states computed are the same either way.
+     * @param parallelNodeThreshold The fewest nodes for which a time step is split, by default
+     *                              {@link #DEFAULT_PARALLEL_NODE_THRESHOLD}
+     */
+    public void setParallelNodeThreshold(int parallelNodeThreshold) {
+        this.parallelNodeThreshold = parallelNodeThreshold;
+    }
+
     /**
      * @param id The Identifier uniquely associated with the BooleanNode to be found
      * @return The BooleanNode instance with the given Identifier
      */
     public BooleanNode getNodeByID(Identifier_Node id) {
-        return this.nodes.get(id.getUUID().toString());
+        return this.nodes.get(id.getIndex());
+    }
+
+    /**
+     * @param label The label given to a node of this network
+     * @return The BooleanNode with the given label, or null if there is none
+     */
+    public BooleanNode getNodeByLabel(String label) {
+        Integer index = this.nodeIndices.get(label);
+        if (index == null) {
+            return null;
+        }
+        return this.nodes.get(index);
+    }
+
+    /**
+     * @param label The label given to a node of this network
+     * @return The Identifier of the node with the given label, or null if there is none
+     */
+    public Identifier_Node getIdentifierByLabel(String label) {
+        BooleanNode node = getNodeByLabel(label);
+        if (node == null) {
+            return null;
+        }
+        return node.getID();
     }
 
     /**
      * @return Collection containing all the BooleanNodes in this network
      */
     public Collection<BooleanNode> getAllNodes() {
-        return this.nodes.values();
+        return this.nodes;
     }
 
     /**
@@ -378,6 +856,30 @@ public class BooleanNetwork {
         return this.soundMaker;
     }
 
+    /**
+     * @return The nodes of this network, sorted with silent nodes first in alphabetical order and musical nodes last in
+     * order of ascending pitch
+     */
+    public BooleanNode[] getSortedNodes() {
+        ArrayList<BooleanNode> sortedNodes = new ArrayList<>();
+        sortedNodes.addAll(this.nodes);
+
+        sortedNodes.sort((bn1, bn2) -> {
+            Integer bn1Note = bn1.getMidiNote();
+            Integer bn2Note = bn2.getMidiNote();
+            if (bn1Note != null && bn2Note != null) {
+                return bn1Note - bn2Note;
+            } else if (bn1Note != null) {
+                return bn1Note;
+            } else if (bn2Note != null) {
+                return -bn2Note;
+            } else {
+                return Collator.getInstance().compare(bn1.getID().getLabel(), bn2.getID().getLabel());
+            }
+        });
+        return sortedNodes.toArray(new BooleanNode[0]);
+    }
+
     /**
      * @param historic Should the buffered states be from the current node buffer (false), or the list of saved node buffers (true)
      * @param sort Should the returned states be sorted by their labels
@@ -386,32 +888,15 @@ public class BooleanNetwork {
      * Sort with silent nodes first in alphabetical order and musical nodes last in order of ascending pitch.
      */
     public Pair<ArrayList<NodeState[]>, Identifier_Node[]> getBufferedStates(boolean sort, boolean historic) {
-        int nodeCount = this.nodes.values().size();
+        int nodeCount = this.nodes.size();
         ArrayList<NodeState[]> nodeStates = new ArrayList<>();
         Identifier_Node[] identifierNodes = new Identifier_Node[nodeCount];
         BooleanNode[] nodes;
-        System.out.println(nodeCount);
 
         if (sort) {
-            ArrayList<BooleanNode> sortedNodes = new ArrayList<>();
-            sortedNodes.addAll(this.nodes.values());
-
-            sortedNodes.sort((bn1, bn2) -> {
-                Integer bn1Note = bn1.getMidiNote();
-                Integer bn2Note = bn2.getMidiNote();
-                if (bn1Note != null && bn2Note != null) {
-                    return bn1Note - bn2Note;
-                } else if (bn1Note != null) {
-                    return bn1Note;
-                } else if (bn2Note != null) {
-                    return -bn2Note;
-                } else {
-                    return Collator.getInstance().compare(bn1.getID().getLabel(), bn2.getID().getLabel());
-                }
-            });
-            nodes = sortedNodes.toArray(new BooleanNode[0]);
+            nodes = getSortedNodes();
         } else {
-            nodes = this.nodes.values().toArray(new BooleanNode[0]);
+            nodes = this.nodes.toArray(new BooleanNode[0]);
         }
 
         for (int nodeIndex = 0; nodeIndex < nodeCount; nodeIndex++) {
@@ -463,11 +948,11 @@ public class BooleanNetwork {
 
     /**
      * Print the true/false values for all the notes at each point in time, up to the maximum currently
-     * computed time-step
+     * computed time-step. For debugging only: nothing calls this, since it prints every node at every step.
      */
     public void printStateBuffer() {
         for (int i = 0; i <= bufferPosition; i++) {
-            for (BooleanNode bn : this.nodes.values()) {
+            for (BooleanNode bn : this.nodes) {
                 System.out.print(bn.getStateAtTransportPosition(i));
                 System.out.print(" | ");
             }
@@ -4,7 +4,6 @@ import Parser.DialogMaker;
 import jdk.nashorn.internal.runtime.regexp.joni.exception.ValueException;
 
 import java.util.ArrayList;
-import java.util.Collections;
 
 /**
  * A node in the boolean network. A node has a particular state at a particular time step.
@@ -35,26 +34,32 @@ public class BooleanNode {
 
     //A collection of states copied from the 'states' array.
     //'states' will be overwritten when the node's states are sequenced from different start states,
-    //so this allows us to retain some or all of the already sequenced data
-    private ArrayList<Boolean> savedStates = new ArrayList<>();
+    //so this allows us to retain some or all of the already sequenced data.
+    //Stored compactly, since it grows with the whole length of the sequence.
+    private StateHistory savedStates = new StateHistory();
 
     //Which other nodes to take as inputs to this node
     private BooleanNode[] inputNodes;
 
+    //The nodes which take this node as an input (once for each time they take it), so that changes can be followed forwards
+    private ArrayList<BooleanNode> outputNodes = new ArrayList<>();
+
     //The vertex function that defines the dynamical behaviour of this node.
     private VertexFunction vertexFunction;
 
+    //The position of this node in the parent network's CompiledNetwork, if it has been compiled.
+    private int engineIndex = -1;
+
     /**
      *
      * @param parentNetwork
+     * @param ID The identifier of this node, holding its index and label within the parent network.
      * @param initialState The initial state for this node at time step 0.
      * @param noteName Which note this node should play, in scientific pitch notation. See {@link MIDINote}.
-     * @param label A name for this node.
-     * @throws Exception
      */
-    BooleanNode(BooleanNetwork parentNetwork, boolean initialState, String noteName, String label) throws Exception {
+    BooleanNode(BooleanNetwork parentNetwork, Identifier_Node ID, boolean initialState, String noteName) {
         this.parentNetwork = parentNetwork;
-        this.ID = new Identifier_Node(parentNetwork.getName(), label);
+        this.ID = ID;
         this.initialState = initialState;
         try {
             this.midiNote = new MIDINote(noteName);
@@ -64,8 +69,10 @@ public class BooleanNode {
         }
         this.states.add(this.initialState);
         //Set up a default vertex function and input consisting of this node only.
+        //The default function is shared by all nodes.
         this.inputNodes = new BooleanNode[]{this};
-        this.vertexFunction = new VertexFunction(1, ID.getLabel() + "_default", new String[]{"self"}, false);
+        this.outputNodes.add(this);
+        this.vertexFunction = VertexFunction.DEFAULT_FUNCTION;
     }
 
     public void setVertexFunction(VertexFunction vertexFunction) {
@@ -78,7 +85,13 @@ public class BooleanNode {
      * @param inputNodes
      */
     public void setInputNodes(BooleanNode[] inputNodes) {
+        for (BooleanNode input : this.inputNodes) {
+            input.outputNodes.remove(this);
+        }
         this.inputNodes = inputNodes;
+        for (BooleanNode input : inputNodes) {
+            input.outputNodes.add(this);
+        }
     }
 
 
@@ -93,27 +106,41 @@ public class BooleanNode {
      */
     public void saveStateBuffer(int duration, Boolean isResting){
         if(!isResting) {
-            this.savedStates.addAll(this.states.subList(0, duration));
+            if (parentNetwork.isCompiledEngine()) {
+                for (int i = 0; i < duration; i++) {
+                    this.savedStates.add(parentNetwork.getCompiledState(this, i));
+                }
+            } else {
+                for (int i = 0; i < duration; i++) {
+                    this.savedStates.add(this.states.get(i));
+                }
+            }
         }else{
-            ArrayList<Boolean> extension = new ArrayList<>(Collections.nCopies(duration,false));
-            this.savedStates.addAll(extension);
+            this.savedStates.addRun(false, duration);
         }
     }
 
     /**
-     * Compute the states occupied by this node until the given time step. Will (indirectly) trigger other
-     * BooleanNode instances to buffer if their state values are needed.
+     * Compute the states occupied by this node until the given time step. The whole network is stepped forwards
+     * to that time step, since this node's states depend on those of its inputs.
      * @param endTimeStep
      */
     public void bufferStates(int endTimeStep) {
-        int currentBufferPosition = getNodeBufferPosition();
-        if (endTimeStep > currentBufferPosition) {
-            for (int i = currentBufferPosition; i < endTimeStep; i++) {
-                this.states.add(this.vertexFunction.evaluate(inputNodes, i));
-            }
+        if (parentNetwork.isCompiledEngine()) {
+            parentNetwork.bufferCompiled(endTimeStep);
+        } else if (endTimeStep > getNodeBufferPosition()) {
+            parentNetwork.bufferInterpreted(endTimeStep);
         }
     }
 
+    /**
+     * Compute the state of this node at the time step after the last buffered one. The states of all the input nodes
+     * at the last buffered time step must already have been computed.
+     */
+    void bufferNextState() {
+        this.states.add(this.vertexFunction.evaluate(inputNodes, this.states.size() - 1));
+    }
+
     /**
      * Delete all the buffered data (except the initial state)
      */
@@ -137,10 +164,13 @@ public class BooleanNode {
     }
 
     public int getNodeBufferPosition() {
+        if (parentNetwork.isCompiledEngine()) {
+            return parentNetwork.getCompiledBufferPosition();
+        }
         return this.states.size() - 1;
     }
 
-    public ArrayList<Boolean> getSavedStates(){
+    public StateHistory getSavedStates(){
         return savedStates;
     }
 
@@ -154,6 +184,9 @@ public class BooleanNode {
      * @return The state of this node at the given time step
      */
     public Boolean getStateAtTransportPosition(Integer position) {
+        if (parentNetwork.isCompiledEngine()) {
+            return parentNetwork.getCompiledState(this, position);
+        }
         if (position < states.size()) {
             return states.get(position);
         } else {
@@ -202,11 +235,39 @@ public class BooleanNode {
         this.initialState = initialState;
     }
 
+    boolean getInitialState() {
+        return this.initialState;
+    }
+
+    BooleanNode[] getInputNodes() {
+        return this.inputNodes;
+    }
+
+    /**
+     * @return The nodes which take this node as an input. A node appears once for each time it takes this node.
+     */
+    ArrayList<BooleanNode> getOutputNodes() {
+        return this.outputNodes;
+    }
+
+    VertexFunction getVertexFunction() {
+        return this.vertexFunction;
+    }
+
+    int getEngineIndex() {
+        return this.engineIndex;
+    }
+
+    void setEngineIndex(int engineIndex) {
+        this.engineIndex = engineIndex;
+    }
+
 
     public void clear() {
         this.midiNote = null;
         this.inputNodes = null;
-        this.vertexFunction.clear();
+        this.outputNodes.clear();
+        //Vertex functions belong to the network and may be shared between nodes, so they are not cleared here
         this.vertexFunction = null;
         this.ID = null;
         this.states.clear();
@@ -0,0 +1,193 @@
+package BoolNets;
+
+import java.util.Collection;
+
+/**
+ * A frozen, int-indexed form of a {@link BooleanNetwork}, used by the compiled stepping engine.
+ *
+ * Each node is given a dense index when the network is compiled. The inputs of every node are flattened into a
+ * single index table, and every node's {@link VertexFunction} is packed into a bitmask truth table. A global network
+ * state is then a {@code long[]} bitset (bit n of the state holds the value of node n), and a whole synchronous time
+ * step can be computed in one pass over these arrays without any boxing, hashing or recursion.
+ *
+ * A CompiledNetwork is only valid for the network structure it was built from. It must be discarded when nodes are
+ * added or when vertex functions/inputs are reassigned.
+ */
+public class CompiledNetwork implements StepFunction {
+
+    //The nodes of the network, positioned by their compiled index
+    private final BooleanNode[] nodes;
+
+    //How many longs are needed to hold one global network state
+    private final int wordCount;
+
+    //The inputs of node n are inputIndices[inputStart[n]] ... inputIndices[inputStart[n+1]-1], in vertex function order
+    private final int[] inputStart;
+    private final int[] inputIndices;
+
+    //The packed truth table of each node's vertex function, shared with the function. See TruthTable
+    private final long[][] truthTables;
+
+    //Identifies the structure of this network, for sharing trajectories between structurally identical networks
+    private final NetworkFingerprint fingerprint;
+
+    /**
+     * Freeze the given nodes into index tables. Each node is assigned its compiled index as a side effect.
+     *
+     * @param networkNodes The nodes making up the network. Their inputs must all be contained in this collection.
+     */
+    CompiledNetwork(Collection<BooleanNode> networkNodes) {
+        int nodeCount = networkNodes.size();
+        this.nodes = networkNodes.toArray(new BooleanNode[0]);
+        this.wordCount = wordsForBits(nodeCount);
+        this.inputStart = new int[nodeCount + 1];
+        this.truthTables = new long[nodeCount][];
+
+        int totalInputs = 0;
+        for (int n = 0; n < nodeCount; n++) {
+            nodes[n].setEngineIndex(n);
+            totalInputs += nodes[n].getInputNodes().length;
+        }
+
+        this.inputIndices = new int[totalInputs];
+        int position = 0;
+        for (int n = 0; n < nodeCount; n++) {
+            inputStart[n] = position;
+            for (BooleanNode input : nodes[n].getInputNodes()) {
+                inputIndices[position] = input.getEngineIndex();
+                position++;
+            }
+            truthTables[n] = nodes[n].getVertexFunction().getTruthTable().getWords();
+        }
+        inputStart[nodeCount] = position;
+        this.fingerprint = new NetworkFingerprint(inputStart, inputIndices, truthTables);
+    }
+
+    /**
+     * @param bitCount A number of bits
+     * @return The number of longs needed to hold that many bits
+     */
+    static int wordsForBits(int bitCount) {
+        return (bitCount + 63) >>> 6;
+    }
+
+    /**
+     * Compute the next global network state from the current one by walking the index and truth tables. All nodes are
+     * updated synchronously.
+     */
+    @Override
+    public void step(long[] in, int inOffset, long[] out, int outOffset) {
+        stepWords(in, inOffset, out, outOffset, 0, wordCount);
+    }
+
+    /**
+     * Compute only the given range of words of the next global network state (i.e. the nodes with indices from
+     * firstWord * 64 to endWord * 64 - 1). Separate ranges can be computed by separate threads.
+     *
+     * @param firstWord The first word of the output state to compute
+     * @param endWord   The word after the last word of the output state to compute
+     */
+    void stepWords(long[] in, int inOffset, long[] out, int outOffset, int firstWord, int endWord) {
+        int nodeCount = nodes.length;
+        for (int word = firstWord; word < endWord; word++) {
+            long next = 0L;
+            int firstNode = word << 6;
+            int lastNode = Math.min(firstNode + 64, nodeCount);
+            for (int n = firstNode; n < lastNode; n++) {
+                int index = 0;
+                int end = inputStart[n + 1];
+                for (int i = inputStart[n], bit = 0; i < end; i++, bit++) {
+                    int source = inputIndices[i];
+                    index |= (int) ((in[inOffset + (source >>> 6)] >>> source) & 1L) << bit;
+                }
+                long[] table = truthTables[n];
+                next |= ((table[index >>> 6] >>> index) & 1L) << n;
+            }
+            out[outOffset + word] = next;
+        }
+    }
+
+    /**
+     * Compute the value of a single node at the next time step, for when only a few nodes need computing.
+     *
+     * @param nodeIndex The compiled index of the node
+     * @return 1 if the node is true at the next time step, otherwise 0
+     */
+    long getNextState(int nodeIndex, long[] in, int inOffset) {
+        int index = 0;
+        int end = inputStart[nodeIndex + 1];
+        for (int i = inputStart[nodeIndex], bit = 0; i < end; i++, bit++) {
+            int source = inputIndices[i];
+            index |= (int) ((in[inOffset + (source >>> 6)] >>> source) & 1L) << bit;
+        }
+        long[] table = truthTables[nodeIndex];
+        return (table[index >>> 6] >>> index) & 1L;
+    }
+
+    /**
+     * @return A packed global state made up of every node's current initial state.
+     */
+    long[] getInitialState() {
+        long[] state = new long[wordCount];
+        for (int n = 0; n < nodes.length; n++) {
+            if (nodes[n].getInitialState()) {
+                state[n >>> 6] |= 1L << n;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * @param state A packed global state
+     * @param nodeIndex The compiled index of a node
+     * @return The value of the given node in the given state
+     */
+    public static boolean getBit(long[] state, int nodeIndex) {
+        return ((state[nodeIndex >>> 6] >>> nodeIndex) & 1L) != 0;
+    }
+
+    public NetworkFingerprint getFingerprint() {
+        return fingerprint;
+    }
+
+    public int getNodeCount() {
+        return nodes.length;
+    }
+
+    public int getWordCount() {
+        return wordCount;
+    }
+
+    /**
+     * @param nodeIndex A compiled node index
+     * @return The number of inputs of the given node
+     */
+    int getInputCount(int nodeIndex) {
+        return inputStart[nodeIndex + 1] - inputStart[nodeIndex];
+    }
+
+    /**
+     * @param nodeIndex A compiled node index
+     * @param position  The position of an input in the node's vertex function
+     * @return The compiled index of the node connected to that input
+     */
+    int getInput(int nodeIndex, int position) {
+        return inputIndices[inputStart[nodeIndex] + position];
+    }
+
+    /**
+     * @param nodeIndex A compiled node index
+     * @return The packed truth table of the node's vertex function. Must not be modified.
+     */
+    long[] getTruthTable(int nodeIndex) {
+        return truthTables[nodeIndex];
+    }
+
+    /**
+     * @param nodeIndex A compiled node index
+     * @return The node with the given compiled index
+     */
+    public BooleanNode getNode(int nodeIndex) {
+        return nodes[nodeIndex];
+    }
+}
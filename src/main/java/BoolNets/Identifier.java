@@ -1,21 +1,21 @@
 package BoolNets;
 
-import java.util.UUID;
-
 /**
  * Base class for {@link Identifier_Node}. Previous versions had multiple Identifier types extending this one. This
  * class may no longer be required.
  */
 public class Identifier{
-    private UUID uuid = UUID.randomUUID();
+    //Dense index, unique within the owning network
+    private final int index;
     private String label = null;
 
-//TODO Ensure that labels are unique
-
-    public Identifier(String label){ this.label = label;}
+    public Identifier(int index, String label){
+        this.index = index;
+        this.label = label;
+    }
 
-    public UUID getUUID() {
-        return uuid;
+    public int getIndex() {
+        return index;
     }
 
     public String getLabel() {
@@ -0,0 +1,206 @@
+package BoolNets;
+
+import Parser.DialogMaker;
+import Sound.LiveSynthStream;
+import Sound.NetTrack;
+import Sound.NoteEvents;
+
+import javax.sound.midi.InvalidMidiDataException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays tracks as their networks are stepped, rather than sequencing them first. A scheduler thread steps each track's
+ * network just ahead of the time it is heard, finds its notes (see {@link NoteEdgeDetector}), and sends them to the
+ * synthesiser through a {@link LiveSynthStream}. Each track follows a {@link TrajectoryCursor} of its own, so nothing
+ * is kept from one step to the next but the current states: playback starts at once, and memory use does not grow
+ * however long it goes on.
+ *
+ * The tracks are played as {@link NetworkSequencer#sequenceTrack(String)} would sequence them, but their states aren't
+ * saved, so are not shown in the visualisation.
+ */
+public class LivePlayback {
+
+    //The longest the scheduler sleeps for, so that it notices being stopped promptly, in microseconds
+    private static final long MAX_SLEEP = 20000;
+
+    //One of the tracks being played, and how far it has been stepped
+    private static class LiveTrack {
+        private final BooleanNetwork network;
+        private final ArrayList<String> startStates;
+        private final ArrayList<Integer> durations;
+        private final int channel;
+
+        //The part of the track being played: its index, and the time step at which it starts
+        private int part = 0;
+        private int partStart = 0;
+        //Follows the network through the current part, or null if it rests
+        private TrajectoryCursor cursor;
+        private NoteEdgeDetector detector;
+        private final long[] state;
+
+        //The first time step whose notes haven't been found
+        private int nextStep = 0;
+
+        private LiveTrack(NetTrack track, LiveSynthStream stream) throws InvalidMidiDataException {
+            this.network = track.getNetwork();
+            this.startStates = new ArrayList<>(track.getStates());
+            this.durations = new ArrayList<>(track.getSteps());
+            this.channel = stream.startTrack(network.getInstrumentIndex());
+            this.state = new long[(network.getAllNodes().size() + 63) >>> 6];
+            startPart();
+        }
+
+        private boolean isFinished() {
+            return part >= durations.size();
+        }
+
+        /**
+         * Follow the network from the start state of the current part, unless it is a rest
+         */
+        private void startPart() {
+            cursor = null;
+            detector = null;
+            if (!isFinished() && startStates.get(part) != null) {
+                cursor = network.getTrajectoryCursor(startStates.get(part), 1);
+                detector = new NoteEdgeDetector(network.getNodeNotes());
+            }
+        }
+
+        /**
+         * Find the notes of the time steps up to the given one, and send them to the stream. The notes still playing at
+         * the end of each part are stopped there.
+         *
+         * @param endStep One after the last time step to play
+         */
+        private void playUntil(int endStep, LiveSynthStream stream, NoteEvents events) throws InvalidMidiDataException {
+            while (nextStep < endStep && !isFinished()) {
+                int partEnd = partStart + durations.get(part);
+                int stop = Math.min(endStep, partEnd);
+                if (cursor != null) {
+                    for (int step = nextStep - partStart; step < stop - partStart; step++) {
+                        cursor.advanceTo(step);
+                        cursor.copyState(step, state);
+                        detector.detect(state, step, events);
+                    }
+                }
+                nextStep = stop;
+                if (nextStep == partEnd) {
+                    if (detector != null) {
+                        detector.finish(partEnd - partStart, events);
+                    }
+                    stream.sendNoteEvents(channel, partStart, events);
+                    events.clear();
+                    part++;
+                    partStart = partEnd;
+                    startPart();
+                } else {
+                    stream.sendNoteEvents(channel, partStart, events);
+                    events.clear();
+                }
+            }
+        }
+    }
+
+    private final ArrayList<LiveTrack> tracks = new ArrayList<>();
+
+    private final LiveSynthStream stream;
+
+    private Thread scheduler;
+
+    private volatile boolean stopped = false;
+
+    /**
+     * Get ready to play the given tracks, each from time step 0. The first part of each track is prepared here, so
+     * that the networks are compiled before playback starts.
+     *
+     * @param netTracks The tracks to play together
+     * @param stream    The stream to send the notes to, which is closed when playback ends
+     * @throws InvalidMidiDataException If no more channels can be assigned to the tracks' instruments
+     */
+    LivePlayback(ArrayList<NetTrack> netTracks, LiveSynthStream stream) throws InvalidMidiDataException {
+        this.stream = stream;
+        for (NetTrack track : netTracks) {
+            tracks.add(new LiveTrack(track, stream));
+        }
+    }
+
+    /**
+     * Start playing on the scheduler thread
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = new Thread(this::run, "Live playback");
+        scheduler.setDaemon(true);
+        scheduler.start();
+    }
+
+    /**
+     * Stop playing, and wait for the scheduler thread to finish. Every note is silenced at once, including those
+     * already sent to the synthesiser to sound a little later (see {@link LiveSynthStream#close()}).
+     */
+    public synchronized void stop() {
+        stopped = true;
+        if (scheduler == null) {
+            return;
+        }
+        LockSupport.unpark(scheduler);
+        try {
+            scheduler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return Is a track still being played?
+     */
+    public boolean isPlaying() {
+        Thread thread = scheduler;
+        return thread != null && thread.isAlive();
+    }
+
+    private void run() {
+        NoteEvents events = new NoteEvents();
+        try {
+            while (!stopped) {
+                //Find the notes of every step which is due, in each track
+                int dueStep = stream.getDueStep();
+                boolean finished = true;
+                int nextStep = Integer.MAX_VALUE;
+                for (LiveTrack track : tracks) {
+                    track.playUntil(dueStep, stream, events);
+                    if (!track.isFinished()) {
+                        finished = false;
+                        nextStep = Math.min(nextStep, track.nextStep);
+                    }
+                }
+                if (finished) {
+                    //Let the last notes sound before they are stopped
+                    while (!stopped && stream.getTimeUntilSent() > 0) {
+                        sleep(stream.getTimeUntilSent());
+                    }
+                    break;
+                }
+                sleep(stream.getTimeUntilDue(nextStep));
+            }
+        } catch (InvalidMidiDataException | RuntimeException e) {
+            e.printStackTrace();
+            DialogMaker.showErrorDialog("Live Playback Error", "Playback has stopped: " + e.getMessage());
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Sleep for the given time, but no longer than {@link #MAX_SLEEP}, and not at all if it isn't positive
+     */
+    private void sleep(long microseconds) {
+        if (microseconds > 0) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(Math.min(microseconds, MAX_SLEEP)));
+        }
+    }
+}
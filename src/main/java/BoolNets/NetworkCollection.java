@@ -12,11 +12,27 @@ import java.util.Iterator;
  */
 public class NetworkCollection {
 
-    private static SoundMaker soundMaker;
+    //The most trajectories, and the most memory, to be kept by each collection's trajectory cache
+    private static final int CACHED_TRAJECTORIES = 64;
+    private static final long CACHED_TRAJECTORY_BYTES = 256L << 20;
 
-    private static HashMap<String,BooleanNetwork> networkVariableNames = new HashMap<>();
+    private SoundMaker soundMaker;
 
-    private static NetworkSequencer networkSequencer;
+    private HashMap<String,BooleanNetwork> networkVariableNames = new HashMap<>();
+
+    private NetworkSequencer networkSequencer;
+
+    //Shared by all the networks in this collection
+    private TrajectoryCache trajectoryCache = new TrajectoryCache(CACHED_TRAJECTORIES, CACHED_TRAJECTORY_BYTES);
+
+    //Should the networks generate straight-line step code (see BooleanNetwork#setGeneratedStepFunction)?
+    private boolean generatedStepFunctions = false;
+
+    //Should the networks stream their states when sequenced, keeping none (see BooleanNetwork#setStreaming)?
+    private boolean streaming = false;
+
+    //The fewest nodes for which the networks split each time step between threads (see BooleanNetwork#setParallelNodeThreshold)
+    private int parallelNodeThreshold = BooleanNetwork.DEFAULT_PARALLEL_NODE_THRESHOLD;
 
     public NetworkCollection(SoundMaker soundMaker){
         this.soundMaker = soundMaker;
@@ -40,6 +56,10 @@ public class NetworkCollection {
     public BooleanNetwork getNetwork(String name) throws Exception {
         if(!networkVariableNames.containsKey(name)){
             BooleanNetwork newNetwork = new BooleanNetwork(soundMaker, name);
+            newNetwork.setTrajectoryCache(trajectoryCache);
+            newNetwork.setGeneratedStepFunction(generatedStepFunctions);
+            newNetwork.setStreaming(streaming);
+            newNetwork.setParallelNodeThreshold(parallelNodeThreshold);
             addNetwork(name,newNetwork);
             return newNetwork;
         }
@@ -57,6 +77,42 @@ public class NetworkCollection {
         networkSequencer.addTrack(trackName,net);
     }
 
+    /**
+     * Choose whether the networks in this collection, including those created later, should be stepped by generated
+     * step code. See {@link BooleanNetwork#setGeneratedStepFunction(boolean)}.
+     * @param generatedStepFunctions true to generate step code for each network
+     */
+    public void setGeneratedStepFunctions(boolean generatedStepFunctions) {
+        this.generatedStepFunctions = generatedStepFunctions;
+        for (BooleanNetwork net : networkVariableNames.values()) {
+            net.setGeneratedStepFunction(generatedStepFunctions);
+        }
+    }
+
+    /**
+     * Choose whether the networks in this collection, including those created later, should stream their states when
+     * they are sequenced. See {@link BooleanNetwork#setStreaming(boolean)}.
+     * @param streaming true to keep none of the networks' states
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+        for (BooleanNetwork net : networkVariableNames.values()) {
+            net.setStreaming(streaming);
+        }
+    }
+
+    /**
+     * Set how many nodes each network in this collection, including those created later, must have for its time steps
+     * to be split between threads. See {@link BooleanNetwork#setParallelNodeThreshold(int)}.
+     * @param parallelNodeThreshold The fewest nodes for which a time step is split
+     */
+    public void setParallelNodeThreshold(int parallelNodeThreshold) {
+        this.parallelNodeThreshold = parallelNodeThreshold;
+        for (BooleanNetwork net : networkVariableNames.values()) {
+            net.setParallelNodeThreshold(parallelNodeThreshold);
+        }
+    }
+
     public Iterator<BooleanNetwork> getNetworksIterator(){
         return this.networkVariableNames.values().iterator();
     }
@@ -75,5 +131,6 @@ public class NetworkCollection {
         }
         networkSequencer.clear();
         networkVariableNames.clear();
+        trajectoryCache.clear();
     }
 }
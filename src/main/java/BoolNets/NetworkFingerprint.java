@@ -0,0 +1,61 @@
+package BoolNets;
+
+import java.util.Arrays;
+
+/**
+ * A structural fingerprint of a {@link CompiledNetwork}: its compiled input tables and truth tables, without any
+ * reference to its nodes. Two networks with equal fingerprints compute the same trajectory from the same packed start
+ * state, so the fingerprint can be used to share computed trajectories (see {@link TrajectoryCache}).
+ *
+ * Truth tables are interned (see {@link TruthTable}), so they are compared by identity.
+ */
+public final class NetworkFingerprint {
+
+    private final int[] inputStart;
+    private final int[] inputIndices;
+    private final long[][] truthTables;
+    private final int hash;
+
+    /**
+     * @param inputStart   The compiled network's input offsets. Not copied, so must not be modified.
+     * @param inputIndices The compiled network's input indices. Not copied, so must not be modified.
+     * @param truthTables  The compiled network's shared truth tables. Not copied, so must not be modified.
+     */
+    NetworkFingerprint(int[] inputStart, int[] inputIndices, long[][] truthTables) {
+        this.inputStart = inputStart;
+        this.inputIndices = inputIndices;
+        this.truthTables = truthTables;
+        int h = Arrays.hashCode(inputStart);
+        h = 31 * h + Arrays.hashCode(inputIndices);
+        for (long[] table : truthTables) {
+            h = 31 * h + System.identityHashCode(table);
+        }
+        this.hash = h;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof NetworkFingerprint)) {
+            return false;
+        }
+        NetworkFingerprint other = (NetworkFingerprint) o;
+        if (hash != other.hash || truthTables.length != other.truthTables.length
+                || !Arrays.equals(inputStart, other.inputStart) || !Arrays.equals(inputIndices, other.inputIndices)) {
+            return false;
+        }
+        for (int n = 0; n < truthTables.length; n++) {
+            if (truthTables[n] != other.truthTables[n]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -1,15 +1,18 @@
 package BoolNets;
 
+import Sound.LiveSynthStream;
+import Sound.MIDIFileStream;
 import Sound.NetTrack;
 
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiUnavailableException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 
 public class NetworkSequencer {
 
-    private static HashMap<String, NetTrack> trackVariables = new HashMap<>();
+    private HashMap<String, NetTrack> trackVariables = new HashMap<>();
 
     private ArrayList<String> flaggedTracksToPlay = new ArrayList<>();
     /**
@@ -65,6 +68,51 @@ public class NetworkSequencer {
         }
     }
 
+    /**
+     * Write the notes of the specified track to a MIDI file as its network is stepped, without sequencing it. The
+     * track is written as a track of its own in the file.
+     *
+     * @param trackName The name of the track to write
+     * @param stream    The file to write to
+     * @throws InvalidMidiDataException
+     * @throws IOException When the file cannot be written
+     */
+    public void writeTrack(String trackName, MIDIFileStream stream) throws InvalidMidiDataException, IOException {
+        NetTrack track = getTrackByName(trackName);
+        ArrayList<String> startStates = track.getStates();
+        ArrayList<Integer> durations = track.getSteps();
+        BooleanNetwork net = track.getNetwork();
+        int channel = stream.startTrack(net.getInstrumentIndex());
+        for (int i = 0; i < startStates.size(); i++) {
+            int lastEnd = 0;
+            if (i > 0) {
+                lastEnd = sumIntArray(durations, 0, i - 1);
+            }
+            net.setStartState(startStates.get(i));
+            net.writeNodeNotes(stream, channel, lastEnd, durations.get(i));
+        }
+    }
+
+    /**
+     * Write the notes of the tracks flagged by the play command to a MIDI file, as with {@link #writeTrack(String, MIDIFileStream)}.
+     *
+     * @param stream The file to write to
+     * @throws InvalidMidiDataException
+     * @throws IOException When the file cannot be written
+     */
+    public void writeTracks(MIDIFileStream stream) throws InvalidMidiDataException, IOException {
+        for (String trackName : flaggedTracksToPlay) {
+            writeTrack(trackName, stream);
+        }
+    }
+
+    /**
+     * @return Has the play command flagged any tracks?
+     */
+    public boolean hasFlaggedTracks() {
+        return !flaggedTracksToPlay.isEmpty();
+    }
+
     public void flagPlayTracks(ArrayList<String> trackNames){
         this.flaggedTracksToPlay = trackNames;
     }
@@ -87,6 +135,25 @@ public class NetworkSequencer {
         flaggedTracksToPlay.clear();
     }
 
+    /**
+     * Start playing the tracks flagged by the play command as their networks are stepped, without sequencing them.
+     * See {@link LivePlayback}.
+     *
+     * @param stream The stream to send the notes to, which is closed when playback ends
+     * @return The playback, which has been started
+     * @throws InvalidMidiDataException If no more channels can be assigned to the tracks' instruments
+     */
+    public LivePlayback playTracksLive(LiveSynthStream stream) throws InvalidMidiDataException {
+        ArrayList<NetTrack> tracks = new ArrayList<>();
+        for (String trackName : flaggedTracksToPlay) {
+            tracks.add(getTrackByName(trackName));
+        }
+        LivePlayback playback = new LivePlayback(tracks, stream);
+        flaggedTracksToPlay.clear();
+        playback.start();
+        return playback;
+    }
+
     private int sumIntArray(ArrayList<Integer> array, int fromIndex, int toIndex) {
         int total = 0;
         for (int i = fromIndex; i <= toIndex; i++) {
@@ -1,23 +1,19 @@
 package BoolNets;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 
+/**
+ * A named start state for a {@link BooleanNetwork}. Names are unique within the network which holds the state.
+ */
 public class NetworkState {
-    private static HashSet<String> stateNames = new HashSet<>();
-
     private String name;
     private boolean truthValue;
     private ArrayList<Identifier_Node> nodeIDs;
 
-    public NetworkState(String name, ArrayList<Identifier_Node> nodeIDs, boolean truthValue) throws Exception {
-        if (stateNames.contains(name)) {
-            throw new Exception("The state name " + "'" + name + "'" + " is already in use.");
-        } else {
-            this.name = name;
-            this.nodeIDs = nodeIDs;
-            this.truthValue = truthValue;
-        }
+    public NetworkState(String name, ArrayList<Identifier_Node> nodeIDs, boolean truthValue) {
+        this.name = name;
+        this.nodeIDs = nodeIDs;
+        this.truthValue = truthValue;
     }
 
     public String getName() {
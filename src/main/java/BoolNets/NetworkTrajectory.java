@@ -0,0 +1,340 @@
+package BoolNets;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The series of global states computed by the compiled stepping engine. Every state is a packed bitset of
+ * {@link CompiledNetwork#getWordCount()} longs, and all the states are stored back to back in a single growable array,
+ * so that state t begins at offset t * stride.
+ *
+ * Because the network is deterministic, once any global state repeats the trajectory is periodic from then on. Every
+ * new state is hashed as it is computed, and when a repeat is found the transient length and the cycle period are
+ * recorded and no more states are computed. Any later time step is then answered by a modulo lookup into the cycle.
+ */
+public class NetworkTrajectory {
+
+    //How many longs make up one packed state
+    private final int stride;
+
+    //All the stored states, back to back
+    private long[] data;
+
+    //How many states are stored
+    private int length;
+
+    //The furthest time step which has been asked for. Can be beyond 'length' once a cycle has been found.
+    private int endTimeStep;
+
+    //Open-addressing hash table of stored states. Each slot holds (time step + 1) of a stored state, or 0 when empty.
+    private int[] stateTable;
+
+    //The first time step of the cycle (i.e. the length of the transient), or -1 if no cycle has been found yet
+    private int cycleStart = -1;
+
+    //The number of time steps after which the states repeat, or -1 if no cycle has been found yet
+    private int cyclePeriod = -1;
+
+    /**
+     * @param initialState The packed state at time step 0. Its length defines the stride of the trajectory.
+     */
+    NetworkTrajectory(long[] initialState) {
+        this.stride = initialState.length;
+        this.data = new long[Math.max(stride, 1) * 16];
+        System.arraycopy(initialState, 0, data, 0, stride);
+        this.length = 1;
+        this.endTimeStep = 0;
+        this.stateTable = new int[64];
+        findOrInsertState(0);
+    }
+
+    /**
+     * Step the network forwards until this trajectory holds the state at the given time step.
+     *
+     * @param network     The step function of the compiled network that produced the states in this trajectory
+     * @param endTimeStep The last time step that should be available
+     */
+    void extend(StepFunction network, int endTimeStep) {
+        this.endTimeStep = Math.max(this.endTimeStep, endTimeStep);
+        if (endTimeStep < length || isCyclic()) {
+            return;
+        }
+        ensureCapacity(endTimeStep + 1);
+        for (int t = length - 1; t < endTimeStep; t++) {
+            network.step(data, t * stride, data, (t + 1) * stride);
+            if (recordState(t + 1)) {
+                return;
+            }
+        }
+        length = endTimeStep + 1;
+    }
+
+    /**
+     * As {@link #extend(StepFunction, int)}, but with each time step split into several parts, each computing a
+     * disjoint range of words of the next state. The parts of a step are run together by
+     * {@link ForkJoinTask#invokeAll(ForkJoinTask[])}, in the pool of the calling thread if it is a ForkJoinPool worker
+     * and otherwise in the common pool, and the calling thread checks the new state for a cycle before the next step
+     * begins. No part ever waits for another, so parts which no worker is free to run are run by the calling thread,
+     * and a busy pool only slows stepping down.
+     *
+     * @param network     The compiled network that produced the states in this trajectory
+     * @param endTimeStep The last time step that should be available
+     * @param partCount   How many parts to split each time step into
+     */
+    void extendParallel(CompiledNetwork network, int endTimeStep, int partCount) {
+        this.endTimeStep = Math.max(this.endTimeStep, endTimeStep);
+        if (endTimeStep < length || isCyclic()) {
+            return;
+        }
+        ensureCapacity(endTimeStep + 1);
+        StepPart[] parts = new StepPart[partCount];
+        for (int t = length - 1; t < endTimeStep; t++) {
+            for (int part = 0; part < partCount; part++) {
+                int firstWord = (int) ((long) stride * part / partCount);
+                int endWord = (int) ((long) stride * (part + 1) / partCount);
+                parts[part] = new StepPart(network, data, t * stride, (t + 1) * stride, firstWord, endWord);
+            }
+            ForkJoinTask.invokeAll(parts);
+            if (recordState(t + 1)) {
+                return;
+            }
+        }
+        length = endTimeStep + 1;
+    }
+
+    /**
+     * Compute the states of this trajectory, which must hold only its initial state, from the trajectory of the same
+     * network before some of its nodes were changed. The states of every other node are copied from the earlier
+     * trajectory, and only the changed nodes are stepped, so when few nodes have changed this is much quicker than
+     * {@link #extend(StepFunction, int)}. As there, no more states are computed once a cycle is found.
+     *
+     * @param previous     The trajectory before the change. The states it holds of nodes not in 'changedNodes' must
+     *                     still be right. Nodes added since then must be in 'changedNodes'.
+     * @param network      The compiled network after the change
+     * @param changedNodes The compiled indices of the nodes whose states may differ from those in 'previous'
+     * @param endTimeStep  The last time step that should be available. Only the time steps available in 'previous'
+     *                     are computed: any more must be computed by extending this trajectory as usual.
+     */
+    void extendFrom(NetworkTrajectory previous, CompiledNetwork network, int[] changedNodes, int endTimeStep) {
+        if (!previous.isCyclic()) {
+            endTimeStep = Math.min(endTimeStep, previous.length - 1);
+        }
+        if (endTimeStep < length || isCyclic()) {
+            return;
+        }
+        this.endTimeStep = Math.max(this.endTimeStep, endTimeStep);
+        ensureCapacity(endTimeStep + 1);
+        int copiedWords = Math.min(stride, previous.stride);
+        for (int t = length - 1; t < endTimeStep; t++) {
+            int inOffset = t * stride;
+            int outOffset = (t + 1) * stride;
+            System.arraycopy(previous.data, previous.resolve(t + 1) * previous.stride, data, outOffset, copiedWords);
+            Arrays.fill(data, outOffset + copiedWords, outOffset + stride, 0L);
+            for (int n : changedNodes) {
+                int word = outOffset + (n >>> 6);
+                data[word] = (data[word] & ~(1L << n)) | (network.getNextState(n, data, inOffset) << n);
+            }
+            if (recordState(t + 1)) {
+                return;
+            }
+        }
+        length = endTimeStep + 1;
+    }
+
+    /**
+     * Computes one range of words of the next state, for {@link #extendParallel(CompiledNetwork, int, int)}
+     */
+    private static class StepPart extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final CompiledNetwork network;
+        private final long[] data;
+        private final int inOffset;
+        private final int outOffset;
+        private final int firstWord;
+        private final int endWord;
+
+        private StepPart(CompiledNetwork network, long[] data, int inOffset, int outOffset, int firstWord, int endWord) {
+            this.network = network;
+            this.data = data;
+            this.inOffset = inOffset;
+            this.outOffset = outOffset;
+            this.firstWord = firstWord;
+            this.endWord = endWord;
+        }
+
+        @Override
+        protected void compute() {
+            network.stepWords(data, inOffset, data, outOffset, firstWord, endWord);
+        }
+    }
+
+    /**
+     * Check the newly computed state at the given time step against the earlier states, recording the cycle if it
+     * has occurred before.
+     *
+     * @param timeStep The time step of the new state
+     * @return true if the state has occurred before, in which case it is not kept
+     */
+    private boolean recordState(int timeStep) {
+        int previous = findOrInsertState(timeStep);
+        if (previous >= 0) {
+            //The state is the same as an earlier state, so the trajectory cycles from there onwards.
+            cycleStart = previous;
+            cyclePeriod = timeStep - previous;
+            length = timeStep;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Look for a stored state equal to the state at the given time step. If there isn't one, the time step is added to
+     * the hash table.
+     *
+     * @param timeStep A time step whose state has been written to 'data'
+     * @return The earlier time step with an identical state, or -1 if this state has not occurred before
+     */
+    private int findOrInsertState(int timeStep) {
+        int mask = stateTable.length - 1;
+        int slot = hashState(timeStep) & mask;
+        while (stateTable[slot] != 0) {
+            int candidate = stateTable[slot] - 1;
+            if (statesEqual(candidate, timeStep)) {
+                return candidate;
+            }
+            slot = (slot + 1) & mask;
+        }
+        stateTable[slot] = timeStep + 1;
+        //Keep the load factor at or below one half
+        if (timeStep + 1 > stateTable.length >>> 1) {
+            rehash(stateTable.length << 1);
+        }
+        return -1;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldTable = stateTable;
+        stateTable = new int[capacity];
+        int mask = capacity - 1;
+        for (int entry : oldTable) {
+            if (entry != 0) {
+                int slot = hashState(entry - 1) & mask;
+                while (stateTable[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                stateTable[slot] = entry;
+            }
+        }
+    }
+
+    private int hashState(int timeStep) {
+        long hash = 0x9E3779B97F4A7C15L;
+        int offset = timeStep * stride;
+        for (int i = 0; i < stride; i++) {
+            hash = (hash ^ data[offset + i]) * 0xBF58476D1CE4E5B9L;
+            hash ^= hash >>> 31;
+        }
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private boolean statesEqual(int timeStepA, int timeStepB) {
+        int offsetA = timeStepA * stride;
+        int offsetB = timeStepB * stride;
+        for (int i = 0; i < stride; i++) {
+            if (data[offsetA + i] != data[offsetB + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param timeStep Any time step which has been computed, or which lies in the cycle (if one has been found)
+     * @return The time step at which the same state is stored in this trajectory
+     */
+    private int resolve(int timeStep) {
+        if (timeStep < length) {
+            return timeStep;
+        }
+        return cycleStart + (timeStep - cycleStart) % cyclePeriod;
+    }
+
+    private void ensureCapacity(int stateCount) {
+        long required = (long) stateCount * stride;
+        if (required > data.length) {
+            if (required > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("The trajectory is too long to be stored: " + Integer.toString(stateCount) + " states.");
+            }
+            long newSize = Math.max(required, (long) data.length * 2);
+            data = Arrays.copyOf(data, (int) Math.min(newSize, Integer.MAX_VALUE - 8));
+        }
+    }
+
+    /**
+     * @param timeStep  A time step in the range [0, {@link #getLength()}), or any time step once a cycle has been found
+     * @param nodeIndex The compiled index of a node
+     * @return The value of the node at the given time step
+     */
+    public boolean getState(int timeStep, int nodeIndex) {
+        timeStep = resolve(timeStep);
+        return ((data[timeStep * stride + (nodeIndex >>> 6)] >>> nodeIndex) & 1L) != 0;
+    }
+
+    /**
+     * Copy the packed state at the given time step into the given array
+     *
+     * @param timeStep A time step in the range [0, {@link #getLength()}), or any time step once a cycle has been found
+     * @param target   An array of at least {@link #getStride()} longs
+     */
+    public void copyState(int timeStep, long[] target) {
+        System.arraycopy(data, resolve(timeStep) * stride, target, 0, stride);
+    }
+
+    /**
+     * @return The number of states stored, including the initial state
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return The furthest time step whose state is available, whether stored or found through the cycle
+     */
+    public int getEndTimeStep() {
+        return endTimeStep;
+    }
+
+    /**
+     * @return Has the trajectory been found to repeat a state?
+     */
+    public boolean isCyclic() {
+        return cyclePeriod > 0;
+    }
+
+    /**
+     * @return The time step at which the cycle begins (the transient length), or -1 if no cycle has been found
+     */
+    public int getCycleStart() {
+        return cycleStart;
+    }
+
+    /**
+     * @return The period of the cycle, or -1 if no cycle has been found
+     */
+    public int getCyclePeriod() {
+        return cyclePeriod;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * @return The approximate number of bytes taken by the stored states and their hash table
+     */
+    long getMemorySize() {
+        return (long) data.length * Long.BYTES + (long) stateTable.length * Integer.BYTES;
+    }
+}
@@ -0,0 +1,86 @@
+package BoolNets;
+
+import Sound.NoteEvents;
+
+/**
+ * Finds where the notes of a network start and stop, from its packed states (see {@link CompiledNetwork}) at
+ * successive time steps. Each state is XOR-ed, a word at a time, with the previous state: of the bits that changed,
+ * those now set are the nodes whose notes start, and those now clear are the nodes whose notes stop. Only the set bits
+ * of each changed word are visited, so a node that holds its state costs nothing, however long its note.
+ *
+ * A note is sustained for as long as its node stays true, so a run of true states gives a single note. The notes found
+ * are passed on in {@link NoteEvents}, to be sequenced by
+ * {@link Sound.SoundMaker#sequenceNoteEvents(String, int, int, NoteEvents)} or sent to a synthesiser as they are
+ * found.
+ */
+public class NoteEdgeDetector {
+
+    //The pitch of each node, by compiled index, or -1 for nodes without a note
+    private final int[] notes;
+
+    //Which nodes have a note. Bit n is node n.
+    private final long[] soundingMask;
+
+    //Which nodes' notes are playing. Bit n is node n.
+    private final long[] playing;
+
+    /**
+     * @param notes The pitch of each node, by compiled index, or -1 for a node which should never sound
+     */
+    public NoteEdgeDetector(int[] notes) {
+        this.notes = notes;
+        int wordCount = (notes.length + 63) >>> 6;
+        this.soundingMask = new long[wordCount];
+        this.playing = new long[wordCount];
+        for (int n = 0; n < notes.length; n++) {
+            if (notes[n] >= 0) {
+                soundingMask[n >>> 6] |= 1L << n;
+            }
+        }
+    }
+
+    /**
+     * Compare the state at the given time step with the state at the previous one (or with silence, for the first
+     * state), and add the notes which stop and start. Notes which stop are added first, so a node taking over a pitch
+     * at the same step isn't cut short.
+     *
+     * @param state  The packed state at the given time step
+     * @param step   The time step of the state
+     * @param events The buffer to add the events to
+     */
+    public void detect(long[] state, int step, NoteEvents events) {
+        for (int w = 0; w < playing.length; w++) {
+            long stopped = (playing[w] ^ (state[w] & soundingMask[w])) & playing[w];
+            while (stopped != 0) {
+                events.addNoteOff(step, notes[(w << 6) + Long.numberOfTrailingZeros(stopped)]);
+                stopped &= stopped - 1;
+            }
+        }
+        for (int w = 0; w < playing.length; w++) {
+            long current = state[w] & soundingMask[w];
+            long started = (playing[w] ^ current) & current;
+            while (started != 0) {
+                events.addNoteOn(step, notes[(w << 6) + Long.numberOfTrailingZeros(started)]);
+                started &= started - 1;
+            }
+            playing[w] = current;
+        }
+    }
+
+    /**
+     * Stop every note which is still playing
+     *
+     * @param step   The time step at which the notes stop
+     * @param events The buffer to add the events to
+     */
+    public void finish(int step, NoteEvents events) {
+        for (int w = 0; w < playing.length; w++) {
+            long stopped = playing[w];
+            while (stopped != 0) {
+                events.addNoteOff(step, notes[(w << 6) + Long.numberOfTrailingZeros(stopped)]);
+                stopped &= stopped - 1;
+            }
+            playing[w] = 0L;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package BoolNets;
+
+import Parser.Interpreter;
+import Sound.LiveSynthStream;
+import Sound.MIDIFileStream;
+import Sound.MIDIMetaListener;
+import Sound.SoundMaker;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Everything needed to interpret, simulate and sequence one score: the {@link NetworkCollection} of its networks,
+ * with their tracks and trajectory cache, and the {@link SoundMaker} holding its MIDI sequence.
+ *
+ * Sessions share no mutable state, so separate sessions can load and sequence different scores on separate threads at
+ * the same time. A single session must only be used by one thread at a time.
+ */
+public class Session {
+
+    private final SoundMaker soundMaker;
+
+    private final NetworkCollection networkCollection;
+
+    //The tracks being played live, if any
+    private LivePlayback livePlayback;
+
+    //The number of files which could not be read or parsed by the last load
+    private int loadErrorCount = 0;
+
+    /**
+     * Create a session which is not connected to any visualisation, e.g. for rendering scores to MIDI files.
+     */
+    public Session() {
+        this(new MIDIMetaListener());
+    }
+
+    /**
+     * @param midiMetaListener Receives the MetaEvents sent during playback of the session's sequence
+     */
+    public Session(MIDIMetaListener midiMetaListener) {
+        this.soundMaker = new SoundMaker(midiMetaListener);
+        this.networkCollection = new NetworkCollection(soundMaker);
+    }
+
+    /**
+     * Clear the session, then parse and interpret the given sequence or network file. A file which cannot be read or
+     * parsed is reported by the interpreter and skipped, and the rest are still loaded: see {@link #getLoadErrorCount()}.
+     *
+     * @param fileLocation The path of the file to load
+     * @throws Exception When the file cannot be interpreted
+     */
+    public void load(String fileLocation) throws Exception {
+        clear();
+        Interpreter interpreter = new Interpreter();
+        interpreter.parseAndRun(fileLocation, soundMaker, networkCollection);
+        loadErrorCount = interpreter.getErrorCount();
+    }
+
+    /**
+     * @return The number of files, i.e. the file loaded and those it imports, which could not be read or parsed by the
+     * last call to {@link #load(String)}
+     */
+    public int getLoadErrorCount() {
+        return loadErrorCount;
+    }
+
+    /**
+     * Sequence the tracks flagged by the loaded file's play command, ready to be played or exported.
+     *
+     * @throws InvalidMidiDataException
+     * @throws MidiUnavailableException
+     */
+    public void sequence() throws InvalidMidiDataException, MidiUnavailableException {
+        networkCollection.getNetworkSequencer().sequenceTracks();
+    }
+
+    /**
+     * Write the tracks flagged by the loaded file's play command straight to a MIDI file, stepping each network as its
+     * notes are written. Nothing is sequenced, and memory use does not grow with the length of the tracks, so this
+     * suits very long scores which are only to be exported.
+     *
+     * @param file The MIDI file to write
+     * @throws InvalidMidiDataException
+     * @throws IOException When the file cannot be written, or no tracks are played
+     */
+    public void writeStreaming(File file) throws InvalidMidiDataException, IOException {
+        NetworkSequencer networkSequencer = networkCollection.getNetworkSequencer();
+        if (!networkSequencer.hasFlaggedTracks()) {
+            throw new IOException("There is nothing to export: no tracks are played.");
+        }
+        try (MIDIFileStream stream = soundMaker.openFileStream(file)) {
+            networkSequencer.writeTracks(stream);
+        }
+    }
+
+    /**
+     * Start playing the tracks flagged by the loaded file's play command, stepping each network just before its notes
+     * are heard, instead of sequencing them first (see {@link LivePlayback}). Playback starts at once, whatever the
+     * length of the tracks. The networks are stepped on another thread, so must not be changed until playback is
+     * stopped, e.g. by {@link #clear()} or {@link #load(String)}.
+     *
+     * @throws InvalidMidiDataException If no more channels can be assigned to the tracks' instruments
+     * @throws MidiUnavailableException If the synthesiser could not be opened
+     */
+    public void playLive() throws InvalidMidiDataException, MidiUnavailableException {
+        stopLive();
+        NetworkSequencer networkSequencer = networkCollection.getNetworkSequencer();
+        if (!networkSequencer.hasFlaggedTracks()) {
+            return;
+        }
+        LiveSynthStream stream = soundMaker.openLiveStream();
+        try {
+            livePlayback = networkSequencer.playTracksLive(stream);
+        } catch (InvalidMidiDataException | RuntimeException e) {
+            stream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Stop playing live, if the session is
+     */
+    public void stopLive() {
+        if (livePlayback != null) {
+            livePlayback.stop();
+            livePlayback = null;
+        }
+    }
+
+    /**
+     * Remove all the networks, tracks and sequenced data from the session, stopping any live playback
+     */
+    public void clear() {
+        stopLive();
+        soundMaker.clear();
+        networkCollection.clearEverything();
+    }
+
+    public SoundMaker getSoundMaker() {
+        return soundMaker;
+    }
+
+    public NetworkCollection getNetworkCollection() {
+        return networkCollection;
+    }
+}
@@ -0,0 +1,210 @@
+package BoolNets;
+
+import java.util.Arrays;
+
+/**
+ * A compact, append-only record of a single node's states, used for the saved states of a {@link BooleanNode}.
+ *
+ * States are packed 64 to a word. Each word that is all false or all true (a rest, or a sustained note) is not stored,
+ * but merged into a run with its neighbours, so a long stretch of the same state costs the same as a short one. The
+ * history is a list of segments, each either a run of identical words or a block of stored (literal) words, and the
+ * state at any position is found by a binary search over the segment starts.
+ */
+public class StateHistory {
+
+    //Marks a segment which is a run of all-false or all-true words, in place of the position of its literal words
+    private static final int FALSE_RUN = -1;
+    private static final int TRUE_RUN = -2;
+
+    //The words which are neither all false nor all true, in order
+    private long[] literals = new long[4];
+    private int literalCount = 0;
+
+    //The first word of each segment, counted in words from the start of the history. Increasing.
+    private int[] segmentStarts = new int[4];
+
+    //For each segment, the position of its first word in 'literals', or FALSE_RUN or TRUE_RUN
+    private int[] segmentWords = new int[4];
+    private int segmentCount = 0;
+
+    //How many whole words of states have been added
+    private int wordCount = 0;
+
+    //The states after the last completed word, packed from bit 0
+    private long currentWord = 0L;
+
+    //How many states have been added
+    private int size = 0;
+
+    /**
+     * @param state The state to add at the end of the history
+     */
+    public void add(boolean state) {
+        if (state) {
+            currentWord |= 1L << size;
+        }
+        size++;
+        if ((size & 63) == 0) {
+            completeWord(currentWord);
+            currentWord = 0L;
+        }
+    }
+
+    /**
+     * Add the same state several times at the end of the history. Whole words are added as a run, so this takes
+     * constant time however many states are added.
+     *
+     * @param state The state to add
+     * @param count How many times to add it
+     */
+    public void addRun(boolean state, int count) {
+        while (count > 0 && (size & 63) != 0) {
+            add(state);
+            count--;
+        }
+        int runWords = count >>> 6;
+        if (runWords > 0) {
+            addRunWords(state ? TRUE_RUN : FALSE_RUN, runWords);
+            size += runWords << 6;
+            count -= runWords << 6;
+        }
+        while (count > 0) {
+            add(state);
+            count--;
+        }
+    }
+
+    /**
+     * @param position A position in the range [0, {@link #size()})
+     * @return The state at the given position
+     */
+    public boolean get(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position: " + Integer.toString(position) + ", Size: " + Integer.toString(size));
+        }
+        int word = position >>> 6;
+        if (word == wordCount) {
+            return ((currentWord >>> position) & 1L) != 0;
+        }
+        int segment = findSegment(word);
+        int segmentWord = segmentWords[segment];
+        if (segmentWord == FALSE_RUN) {
+            return false;
+        } else if (segmentWord == TRUE_RUN) {
+            return true;
+        }
+        return ((literals[segmentWord + word - segmentStarts[segment]] >>> position) & 1L) != 0;
+    }
+
+    /**
+     * @param word A word index in the range [0, ({@link #size()} + 63) / 64)
+     * @return The 64 states from position word * 64, packed from bit 0. States past the end of the history are false.
+     */
+    public long getWord(int word) {
+        if (word < 0 || word > wordCount || (word == wordCount && (size & 63) == 0)) {
+            throw new IndexOutOfBoundsException("Word: " + Integer.toString(word) + ", Size: " + Integer.toString(size));
+        }
+        if (word == wordCount) {
+            return currentWord;
+        }
+        int segment = findSegment(word);
+        int segmentWord = segmentWords[segment];
+        if (segmentWord == FALSE_RUN) {
+            return 0L;
+        } else if (segmentWord == TRUE_RUN) {
+            return -1L;
+        }
+        return literals[segmentWord + word - segmentStarts[segment]];
+    }
+
+    /**
+     * @return The number of states in the history
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return A copy of this history, which doesn't change when this one does. Takes time in proportion to the
+     * space the history takes, which is much less than the number of states when they are long runs.
+     */
+    public StateHistory copy() {
+        StateHistory copy = new StateHistory();
+        copy.literals = Arrays.copyOf(literals, Math.max(1, literalCount));
+        copy.literalCount = literalCount;
+        copy.segmentStarts = Arrays.copyOf(segmentStarts, Math.max(1, segmentCount));
+        copy.segmentWords = Arrays.copyOf(segmentWords, Math.max(1, segmentCount));
+        copy.segmentCount = segmentCount;
+        copy.wordCount = wordCount;
+        copy.currentWord = currentWord;
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * Remove all the states from the history
+     */
+    public void clear() {
+        literalCount = 0;
+        segmentCount = 0;
+        wordCount = 0;
+        currentWord = 0L;
+        size = 0;
+    }
+
+    /**
+     * @return The index of the last segment starting at or before the given word
+     */
+    private int findSegment(int word) {
+        int low = 0;
+        int high = segmentCount - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (segmentStarts[middle] <= word) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private void completeWord(long word) {
+        if (word == 0L) {
+            addRunWords(FALSE_RUN, 1);
+        } else if (word == -1L) {
+            addRunWords(TRUE_RUN, 1);
+        } else {
+            if (segmentCount == 0 || segmentWords[segmentCount - 1] < 0) {
+                addSegment(literalCount);
+            }
+            if (literalCount == literals.length) {
+                literals = Arrays.copyOf(literals, literalCount * 2);
+            }
+            literals[literalCount] = word;
+            literalCount++;
+            wordCount++;
+        }
+    }
+
+    /**
+     * Add whole words of identical states, extending the last segment if it is a run of the same state. The size is
+     * not updated.
+     */
+    private void addRunWords(int run, int runWords) {
+        if (segmentCount == 0 || segmentWords[segmentCount - 1] != run) {
+            addSegment(run);
+        }
+        wordCount += runWords;
+    }
+
+    private void addSegment(int segmentWord) {
+        if (segmentCount == segmentStarts.length) {
+            segmentStarts = Arrays.copyOf(segmentStarts, segmentCount * 2);
+            segmentWords = Arrays.copyOf(segmentWords, segmentCount * 2);
+        }
+        segmentStarts[segmentCount] = wordCount;
+        segmentWords[segmentCount] = segmentWord;
+        segmentCount++;
+    }
+}
@@ -0,0 +1,29 @@
+package BoolNets;
+
+/**
+ * Computes one synchronous time step of a compiled network: the packed global state at time step t+1 from the
+ * packed global state at time step t. See {@link CompiledNetwork} for the layout of packed states.
+ */
+public interface StepFunction {
+
+    /**
+     * Compute the next packed state, reading and writing at the given offsets of the given arrays. This allows a whole
+     * trajectory to be stored in one flat array.
+     *
+     * @param in        The array holding the packed state at time step t
+     * @param inOffset  The position in 'in' at which the state begins
+     * @param out       The array into which the packed state at time step t+1 is written
+     * @param outOffset The position in 'out' at which the state should begin. Must not overlap the input state.
+     */
+    void step(long[] in, int inOffset, long[] out, int outOffset);
+
+    /**
+     * Compute the next packed state.
+     *
+     * @param in  The packed state at time step t
+     * @param out The array into which the packed state at time step t+1 is written. Must not be the same array as 'in'.
+     */
+    default void step(long[] in, long[] out) {
+        step(in, 0, out, 0);
+    }
+}
@@ -0,0 +1,363 @@
+package BoolNets;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Generates a JVM class whose {@link StepFunction#step(long[], int, long[], int)} method computes one time step of a
+ * particular {@link CompiledNetwork} as straight-line code. Every node's input positions are baked in as constants,
+ * truth tables of up to 6 inputs are inlined as long constants, and constant or single-input (copy/negate) functions
+ * are reduced to the equivalent bitwise operations. The generated code has no loops or table walks, so the JIT can
+ * compile it to a flat sequence of shifts and masks.
+ *
+ * The class is written with ASM (already on the classpath through Parboiled) and defined in its own class loader, so
+ * that it can be garbage collected along with the CompiledNetwork it was made from. If generation fails for any reason
+ * the CompiledNetwork itself is used, which computes the same states by walking its tables.
+ */
+public class StepFunctionGenerator {
+
+    //Generated methods are kept below the JVM's limit for JIT compilation of a single method (8000 bytes)
+    private static final int METHOD_SIZE_LIMIT = 6000;
+
+    //The most bytes of code emitted to store one word of the output state
+    private static final int STORE_SIZE = 16;
+
+    private static final String INTERNAL_NAME_BASE = "BoolNets/generated/NetworkStep";
+    private static final String STEP_FUNCTION = "BoolNets/StepFunction";
+    private static final String STEP_DESCRIPTOR = "([JI[JI)V";
+
+    //Local variable slots in the generated step methods
+    private static final int IN = 1;
+    private static final int IN_OFFSET = 2;
+    private static final int OUT = 3;
+    private static final int OUT_OFFSET = 4;
+    private static final int ACCUMULATOR = 5;
+    private static final int INDEX = 7;
+
+    private static int classCount = 0;
+
+    /**
+     * Generate a step function for the given network, falling back to the network's own table-walking step function
+     * if the class cannot be generated or loaded.
+     *
+     * @param network The compiled network
+     * @return A StepFunction which computes the same states as the given network
+     */
+    public static StepFunction generate(CompiledNetwork network) {
+        try {
+            return generateClass(network);
+        } catch (Throwable e) {
+            //The tables compute the same states, only more slowly
+            return network;
+        }
+    }
+
+    private static StepFunction generateClass(CompiledNetwork network) throws ReflectiveOperationException {
+        String internalName;
+        synchronized (StepFunctionGenerator.class) {
+            internalName = INTERNAL_NAME_BASE + Integer.toString(classCount);
+            classCount += 1;
+        }
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, internalName, null, "java/lang/Object", new String[]{STEP_FUNCTION});
+        cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "tables", "[[J", null, null).visitEnd();
+
+        //Constructor, taking the truth tables which are too big to inline
+        MethodVisitor init = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "([[J)V", null, null);
+        init.visitCode();
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitVarInsn(Opcodes.ALOAD, 1);
+        init.visitFieldInsn(Opcodes.PUTFIELD, internalName, "tables", "[[J");
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        //The nodes are split into several 'part' methods, each small enough to be compiled by the JIT
+        PartWriter parts = new PartWriter(cw);
+        for (int word = 0; word < network.getWordCount(); word++) {
+            generateWord(parts, internalName, network, word);
+        }
+        parts.finishMethod();
+
+        MethodVisitor step = cw.visitMethod(Opcodes.ACC_PUBLIC, "step", STEP_DESCRIPTOR, null, null);
+        step.visitCode();
+        for (int p = 0; p < parts.partCount; p++) {
+            step.visitVarInsn(Opcodes.ALOAD, 0);
+            step.visitVarInsn(Opcodes.ALOAD, IN);
+            step.visitVarInsn(Opcodes.ILOAD, IN_OFFSET);
+            step.visitVarInsn(Opcodes.ALOAD, OUT);
+            step.visitVarInsn(Opcodes.ILOAD, OUT_OFFSET);
+            step.visitMethodInsn(Opcodes.INVOKESPECIAL, internalName, "part" + Integer.toString(p), STEP_DESCRIPTOR, false);
+        }
+        step.visitInsn(Opcodes.RETURN);
+        step.visitMaxs(0, 0);
+        step.visitEnd();
+        cw.visitEnd();
+
+        long[][] tables = new long[network.getNodeCount()][];
+        for (int n = 0; n < tables.length; n++) {
+            tables[n] = network.getTruthTable(n);
+        }
+
+        GeneratedClassLoader loader = new GeneratedClassLoader(StepFunction.class.getClassLoader());
+        Class<?> stepClass = loader.define(internalName.replace('/', '.'), cw.toByteArray());
+        return (StepFunction) stepClass.getConstructor(long[][].class).newInstance((Object) tables);
+    }
+
+    /**
+     * Emit the code computing one word (64 nodes) of the output state. If the current part method fills up part way
+     * through the word, the nodes computed so far are stored, and the rest are computed in the next part method and
+     * combined with them.
+     */
+    private static void generateWord(PartWriter parts, String internalName, CompiledNetwork network, int word) {
+        //Bits of nodes whose functions are constantly true
+        long constantBits = 0L;
+        //Is a value being built up in the accumulator, and has part of the word already been stored?
+        boolean accumulating = false;
+        boolean stored = false;
+
+        int firstNode = word << 6;
+        int lastNode = Math.min(firstNode + 64, network.getNodeCount());
+        for (int n = firstNode; n < lastNode; n++) {
+            int arity = network.getInputCount(n);
+            long[] table = network.getTruthTable(n);
+            int constant = getConstantValue(table, arity);
+            if (constant == 0) {
+                continue;
+            } else if (constant == 1) {
+                constantBits |= 1L << n;
+                continue;
+            }
+
+            //Leave room to store the word after this node
+            int size = getNodeSize(arity);
+            if (!parts.hasRoomFor(size + STORE_SIZE)) {
+                if (accumulating) {
+                    generateStore(parts.getMethod(), word, true, 0L, stored);
+                    stored = true;
+                    accumulating = false;
+                }
+                parts.finishMethod();
+            }
+            MethodVisitor mv = parts.getMethod();
+            parts.add(size);
+
+            //Leaves the value of node n at the next time step (0 or 1) on the stack as a long
+            if (arity == 1 && table[0] == 2L) {
+                generateInputBit(mv, network.getInput(n, 0));
+            } else if (arity == 1 && table[0] == 1L) {
+                generateInputBit(mv, network.getInput(n, 0));
+                mv.visitInsn(Opcodes.LCONST_1);
+                mv.visitInsn(Opcodes.LXOR);
+            } else if (table.length == 1) {
+                mv.visitLdcInsn(table[0]);
+                generateIndex(mv, network, n);
+                mv.visitInsn(Opcodes.LUSHR);
+                mv.visitInsn(Opcodes.LCONST_1);
+                mv.visitInsn(Opcodes.LAND);
+            } else {
+                generateIndex(mv, network, n);
+                mv.visitVarInsn(Opcodes.ISTORE, INDEX);
+                mv.visitVarInsn(Opcodes.ALOAD, 0);
+                mv.visitFieldInsn(Opcodes.GETFIELD, internalName, "tables", "[[J");
+                pushInt(mv, n);
+                mv.visitInsn(Opcodes.AALOAD);
+                mv.visitVarInsn(Opcodes.ILOAD, INDEX);
+                mv.visitIntInsn(Opcodes.BIPUSH, 6);
+                mv.visitInsn(Opcodes.IUSHR);
+                mv.visitInsn(Opcodes.LALOAD);
+                mv.visitVarInsn(Opcodes.ILOAD, INDEX);
+                mv.visitInsn(Opcodes.LUSHR);
+                mv.visitInsn(Opcodes.LCONST_1);
+                mv.visitInsn(Opcodes.LAND);
+            }
+
+            int shift = n & 63;
+            if (shift != 0) {
+                pushInt(mv, shift);
+                mv.visitInsn(Opcodes.LSHL);
+            }
+            if (accumulating) {
+                mv.visitVarInsn(Opcodes.LLOAD, ACCUMULATOR);
+                mv.visitInsn(Opcodes.LOR);
+            }
+            mv.visitVarInsn(Opcodes.LSTORE, ACCUMULATOR);
+            accumulating = true;
+        }
+
+        if (!parts.hasRoomFor(STORE_SIZE)) {
+            //Only when no node of the word was computed in this method, so there is nothing to store first
+            parts.finishMethod();
+        }
+        generateStore(parts.getMethod(), word, accumulating, constantBits, stored);
+        parts.add(STORE_SIZE);
+    }
+
+    /**
+     * @return An upper bound on the bytes of code emitted for a node with the given number of inputs, including
+     * adding it to the accumulator. A node's truth table must fit in memory, so this is never more than a few hundred.
+     */
+    private static int getNodeSize(int arity) {
+        return 17 * arity + 32;
+    }
+
+    /**
+     * Emit the code which stores a word of the output state, made up of the accumulator (if accumulating) and the
+     * given constant bits, combined with the part of the word already stored (if stored). Takes at most
+     * {@link #STORE_SIZE} bytes.
+     */
+    private static void generateStore(MethodVisitor mv, int word, boolean accumulating, long constantBits, boolean stored) {
+        mv.visitVarInsn(Opcodes.ALOAD, OUT);
+        mv.visitVarInsn(Opcodes.ILOAD, OUT_OFFSET);
+        pushInt(mv, word);
+        mv.visitInsn(Opcodes.IADD);
+        boolean loaded = false;
+        if (stored) {
+            mv.visitInsn(Opcodes.DUP2);
+            mv.visitInsn(Opcodes.LALOAD);
+            loaded = true;
+        }
+        if (accumulating) {
+            mv.visitVarInsn(Opcodes.LLOAD, ACCUMULATOR);
+            if (loaded) {
+                mv.visitInsn(Opcodes.LOR);
+            }
+            loaded = true;
+        }
+        if (constantBits != 0L || !loaded) {
+            mv.visitLdcInsn(constantBits);
+            if (loaded) {
+                mv.visitInsn(Opcodes.LOR);
+            }
+        }
+        mv.visitInsn(Opcodes.LASTORE);
+    }
+
+    /**
+     * Emit the code which leaves the truth table index of node n (bit j is the value of input j) on the stack as an int.
+     */
+    private static void generateIndex(MethodVisitor mv, CompiledNetwork network, int n) {
+        int arity = network.getInputCount(n);
+        for (int j = 0; j < arity; j++) {
+            generateInputBit(mv, network.getInput(n, j));
+            mv.visitInsn(Opcodes.L2I);
+            if (j > 0) {
+                pushInt(mv, j);
+                mv.visitInsn(Opcodes.ISHL);
+                mv.visitInsn(Opcodes.IOR);
+            }
+        }
+    }
+
+    /**
+     * Emit the code which leaves the value of the given node in the input state (0 or 1) on the stack as a long.
+     */
+    private static void generateInputBit(MethodVisitor mv, int source) {
+        mv.visitVarInsn(Opcodes.ALOAD, IN);
+        mv.visitVarInsn(Opcodes.ILOAD, IN_OFFSET);
+        pushInt(mv, source >>> 6);
+        mv.visitInsn(Opcodes.IADD);
+        mv.visitInsn(Opcodes.LALOAD);
+        int shift = source & 63;
+        if (shift != 0) {
+            pushInt(mv, shift);
+            mv.visitInsn(Opcodes.LUSHR);
+        }
+        mv.visitInsn(Opcodes.LCONST_1);
+        mv.visitInsn(Opcodes.LAND);
+    }
+
+    /**
+     * @return 0 or 1 if the given truth table has that output for every input, or -1 otherwise
+     */
+    private static int getConstantValue(long[] table, int arity) {
+        long mask = arity >= 6 ? -1L : (1L << (1 << arity)) - 1;
+        boolean allFalse = true;
+        boolean allTrue = true;
+        for (long word : table) {
+            allFalse &= (word & mask) == 0L;
+            allTrue &= (word & mask) == mask;
+        }
+        if (allFalse) {
+            return 0;
+        } else if (allTrue) {
+            return 1;
+        }
+        return -1;
+    }
+
+    private static void pushInt(MethodVisitor mv, int value) {
+        if (value >= -1 && value <= 5) {
+            mv.visitInsn(Opcodes.ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(Opcodes.BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            mv.visitIntInsn(Opcodes.SIPUSH, value);
+        } else {
+            mv.visitLdcInsn(value);
+        }
+    }
+
+    /**
+     * Writes the 'part' methods one after another, starting a new method whenever the next node's code might take the
+     * current one over {@link #METHOD_SIZE_LIMIT}.
+     */
+    private static class PartWriter {
+        private final ClassWriter cw;
+
+        //The method being written, or null if a new one should be started
+        private MethodVisitor mv;
+        //An upper bound on the bytes of code in the method being written
+        private int size;
+        //The number of methods started
+        private int partCount = 0;
+
+        PartWriter(ClassWriter cw) {
+            this.cw = cw;
+        }
+
+        MethodVisitor getMethod() {
+            if (mv == null) {
+                mv = cw.visitMethod(Opcodes.ACC_PRIVATE, "part" + Integer.toString(partCount), STEP_DESCRIPTOR, null, null);
+                mv.visitCode();
+                size = 0;
+                partCount++;
+            }
+            return mv;
+        }
+
+        boolean hasRoomFor(int bytes) {
+            return mv == null || size + bytes <= METHOD_SIZE_LIMIT;
+        }
+
+        void add(int bytes) {
+            size += bytes;
+        }
+
+        void finishMethod() {
+            if (mv != null) {
+                mv.visitInsn(Opcodes.RETURN);
+                mv.visitMaxs(0, 0);
+                mv.visitEnd();
+                mv = null;
+            }
+        }
+    }
+
+    /**
+     * Each generated class gets its own loader, so the class can be unloaded when its network is discarded.
+     */
+    private static class GeneratedClassLoader extends ClassLoader {
+        GeneratedClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
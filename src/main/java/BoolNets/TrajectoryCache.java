@@ -0,0 +1,108 @@
+package BoolNets;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the trajectories computed by the compiled engine, keyed by the structure of the network (see
+ * {@link NetworkFingerprint}) and the packed start state. A sequence which restarts a network from the same state,
+ * possibly after playing other states in between, picks up the trajectory that was already computed and only
+ * extends it if the new segment is longer. Each entry is the trajectory object itself, so it always holds the longest
+ * prefix computed so far.
+ *
+ * The least recently used trajectories are evicted once there are too many of them or they take too much memory.
+ * Cached trajectories are extended in place by whichever network uses them, so a cache must only be used from one
+ * thread at a time. Each {@link NetworkCollection} has its own cache.
+ */
+public class TrajectoryCache {
+
+    private final int maxEntries;
+    private final long maxBytes;
+
+    //In least recently used order
+    private final LinkedHashMap<Key, NetworkTrajectory> trajectories = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param maxEntries The most trajectories to keep
+     * @param maxBytes   The most memory (approximately) to be taken by the kept trajectories
+     */
+    public TrajectoryCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Find the trajectory of the given network from the given start state, creating a new (initial state only)
+     * trajectory if none is cached.
+     *
+     * @param network      The compiled network
+     * @param initialState The packed state at time step 0
+     * @return The cached or new trajectory
+     */
+    synchronized NetworkTrajectory getTrajectory(CompiledNetwork network, long[] initialState) {
+        Key key = new Key(network.getFingerprint(), initialState);
+        NetworkTrajectory trajectory = trajectories.get(key);
+        if (trajectory == null) {
+            trajectory = new NetworkTrajectory(initialState);
+            trajectories.put(key, trajectory);
+        }
+        evict(trajectory);
+        return trajectory;
+    }
+
+    /**
+     * Remove every cached trajectory
+     */
+    public synchronized void clear() {
+        trajectories.clear();
+    }
+
+    /**
+     * Remove the least recently used trajectories (except the one in use) until the limits are met. Trajectories grow
+     * after they are cached, so their sizes are measured afresh each time.
+     */
+    private void evict(NetworkTrajectory inUse) {
+        long totalBytes = 0L;
+        for (NetworkTrajectory trajectory : trajectories.values()) {
+            totalBytes += trajectory.getMemorySize();
+        }
+        Iterator<NetworkTrajectory> iterator = trajectories.values().iterator();
+        int entryCount = trajectories.size();
+        while (iterator.hasNext() && (entryCount > maxEntries || totalBytes > maxBytes)) {
+            NetworkTrajectory trajectory = iterator.next();
+            if (trajectory != inUse) {
+                totalBytes -= trajectory.getMemorySize();
+                entryCount--;
+                iterator.remove();
+            }
+        }
+    }
+
+    private static final class Key {
+        private final NetworkFingerprint fingerprint;
+        private final long[] initialState;
+        private final int hash;
+
+        Key(NetworkFingerprint fingerprint, long[] initialState) {
+            this.fingerprint = fingerprint;
+            this.initialState = initialState.clone();
+            this.hash = 31 * fingerprint.hashCode() + Arrays.hashCode(initialState);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && Arrays.equals(initialState, other.initialState) && fingerprint.equals(other.fingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package BoolNets;
+
+/**
+ * A pull-based cursor over the trajectory of a compiled network, using a fixed amount of memory however long the run.
+ *
+ * Only the most recent states are kept, in a ring buffer of packed states (see {@link CompiledNetwork}). Each call to
+ * {@link #advance()} computes the next state into the oldest slot of the ring, so a consumer can read the current state
+ * and a window of earlier states, but nothing older. The cursor is independent of the network's own buffered states,
+ * and several cursors can be read side by side.
+ */
+public class TrajectoryCursor {
+
+    private final StepFunction network;
+
+    //How many longs make up one packed state
+    private final int stride;
+
+    //How many states are kept, including the current one
+    private final int windowSize;
+
+    //The most recent states. The state at time step t is held in slot t % windowSize.
+    private final long[] ring;
+
+    //The time step of the current state
+    private int timeStep;
+
+    /**
+     * @param network      The step function of the network to follow
+     * @param initialState The packed state at time step 0
+     * @param windowSize   How many states to keep available, including the current one. At least 1.
+     */
+    TrajectoryCursor(StepFunction network, long[] initialState, int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("The cursor window must hold at least one state. Window size: " + Integer.toString(windowSize));
+        }
+        this.network = network;
+        this.stride = initialState.length;
+        //Stepping needs two distinct slots, even if only one state is exposed
+        this.windowSize = Math.max(windowSize, 2);
+        this.ring = new long[this.windowSize * stride];
+        System.arraycopy(initialState, 0, ring, 0, stride);
+        this.timeStep = 0;
+    }
+
+    /**
+     * Compute the state at the next time step, which becomes the current state. The oldest state in the window is
+     * discarded.
+     */
+    public void advance() {
+        int from = (timeStep % windowSize) * stride;
+        int to = ((timeStep + 1) % windowSize) * stride;
+        network.step(ring, from, ring, to);
+        timeStep++;
+    }
+
+    /**
+     * Advance until the current state is the one at the given time step.
+     *
+     * @param targetTimeStep A time step not before the current one
+     */
+    public void advanceTo(int targetTimeStep) {
+        while (timeStep < targetTimeStep) {
+            advance();
+        }
+    }
+
+    /**
+     * @return The time step of the current state
+     */
+    public int getTimeStep() {
+        return timeStep;
+    }
+
+    /**
+     * @return The earliest time step which is still held in the window
+     */
+    public int getWindowStart() {
+        return Math.max(0, timeStep - windowSize + 1);
+    }
+
+    /**
+     * @param nodeIndex The compiled index of a node
+     * @return The value of the node in the current state
+     */
+    public boolean getState(int nodeIndex) {
+        return getState(timeStep, nodeIndex);
+    }
+
+    /**
+     * @param node A node of the network being followed
+     * @return The value of the node in the current state
+     */
+    public boolean getState(BooleanNode node) {
+        return getState(timeStep, node.getEngineIndex());
+    }
+
+    /**
+     * @param pastTimeStep A time step from {@link #getWindowStart()} to {@link #getTimeStep()}
+     * @param nodeIndex    The compiled index of a node
+     * @return The value of the node at the given time step
+     */
+    public boolean getState(int pastTimeStep, int nodeIndex) {
+        int offset = slotOffset(pastTimeStep);
+        return ((ring[offset + (nodeIndex >>> 6)] >>> nodeIndex) & 1L) != 0;
+    }
+
+    /**
+     * Copy the packed state at the given time step into the given array
+     *
+     * @param pastTimeStep A time step from {@link #getWindowStart()} to {@link #getTimeStep()}
+     * @param target       An array of at least as many longs as a packed state of the network
+     */
+    public void copyState(int pastTimeStep, long[] target) {
+        System.arraycopy(ring, slotOffset(pastTimeStep), target, 0, stride);
+    }
+
+    private int slotOffset(int pastTimeStep) {
+        if (pastTimeStep > timeStep || pastTimeStep < getWindowStart()) {
+            throw new IndexOutOfBoundsException("The time step " + Integer.toString(pastTimeStep) + " is outside the cursor window ["
+                    + Integer.toString(getWindowStart()) + ", " + Integer.toString(timeStep) + "].");
+        }
+        return (pastTimeStep % windowSize) * stride;
+    }
+}
@@ -0,0 +1,94 @@
+package BoolNets;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The immutable, packed truth table of a {@link VertexFunction}. The output for input index i (bit j of i is the value
+ * of input j) is bit (i % 64) of word (i / 64).
+ *
+ * Truth tables are hash-consed: {@link #intern(int, long[])} returns the one shared instance for each distinct arity and
+ * content, so every function with the same table (in any network, and across reloads) uses the same words. Instances
+ * no longer used by any function are garbage collected.
+ */
+public final class TruthTable {
+
+    //The canonical instance for each table content. Held weakly, so unused tables can be collected.
+    private static final Map<TruthTable, WeakReference<TruthTable>> internedTables = new WeakHashMap<>();
+
+    private final int arity;
+
+    //Never modified after construction
+    private final long[] words;
+
+    private final int hash;
+
+    private TruthTable(int arity, long[] words) {
+        this.arity = arity;
+        this.words = words;
+        this.hash = 31 * arity + Arrays.hashCode(words);
+    }
+
+    /**
+     * @param arity The number of inputs of the function
+     * @param words The packed outputs of the function. Must not be modified after this call.
+     * @return The shared truth table with the given arity and outputs
+     */
+    static TruthTable intern(int arity, long[] words) {
+        TruthTable table = new TruthTable(arity, words);
+        synchronized (internedTables) {
+            WeakReference<TruthTable> reference = internedTables.get(table);
+            TruthTable existing = reference == null ? null : reference.get();
+            if (existing != null) {
+                return existing;
+            }
+            internedTables.put(table, new WeakReference<>(table));
+        }
+        return table;
+    }
+
+    /**
+     * @param inputWord The int-encoded input values. Bit i is the value of input i.
+     * @return The output of the table for the given inputs
+     */
+    public boolean evaluate(int inputWord) {
+        return ((words[inputWord >>> 6] >>> inputWord) & 1L) != 0;
+    }
+
+    public int getArity() {
+        return arity;
+    }
+
+    /**
+     * @return The packed outputs of the table, shared by every user of this table. Must not be modified.
+     */
+    long[] getWords() {
+        return words;
+    }
+
+    /**
+     * @return A copy of the packed outputs of the table, which may be modified
+     */
+    long[] copyWords() {
+        return words.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TruthTable)) {
+            return false;
+        }
+        TruthTable other = (TruthTable) o;
+        return arity == other.arity && hash == other.hash && Arrays.equals(words, other.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -1,124 +1,151 @@
 package BoolNets;
 
-import Utilities.Pair;
-
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 
 public class VertexFunction {
+    //Functions of up to this many inputs have their whole truth table packed into a single long
+    private static final int SMALL_TABLE_MAX_ARITY = 6;
+    //Keeps the truth table below 2^30 bits (128MB)
+    private static final int MAX_ARITY = 30;
+
+    //Bit p of INPUT_PATTERNS[j] is bit j of p. Used to select the entries of a table word where input j is true.
+    private static final long[] INPUT_PATTERNS = {
+            0xAAAAAAAAAAAAAAAAL,
+            0xCCCCCCCCCCCCCCCCL,
+            0xF0F0F0F0F0F0F0F0L,
+            0xFF00FF00FF00FF00L,
+            0xFFFF0000FFFF0000L,
+            0xFFFFFFFF00000000L
+    };
+
     private int arity;
     private String name;
     private String[] argumentNames;
     private boolean defaultValue;
-    private Boolean[] outputs;
+
+    //The function's default for nodes which have not been assigned one: a single input (the node itself), always false
+    static final VertexFunction DEFAULT_FUNCTION = new VertexFunction(1, "default", new String[]{"self"}, false);
+
+    //The truth table of the function, shared with every other function with the same outputs.
+    //Replaced (never modified) when rules are set.
+    private TruthTable truthTable;
 
     /**
      * Create a new vertex function which has the given number of inputs
      * @param arity The number of inputs to this function
      */
     public VertexFunction(int arity, String name, String[] argumentNames, boolean defaultValue){
+        if(arity > MAX_ARITY){
+            throw new IllegalArgumentException("The vertex function '" + name + "' has too many inputs. Inputs: " + Integer.toString(arity) + ", Maximum: " + Integer.toString(MAX_ARITY));
+        }
         this.arity = arity;
         this.name = name;
         this.argumentNames = argumentNames;
         this.defaultValue = defaultValue;
-        Boolean[] a = new Boolean[(int) Math.pow(2,arity)];
-        Arrays.fill(a,defaultValue);
-        this.outputs = a;
+        int size = 1 << arity;
+        long[] words;
+        if(arity <= SMALL_TABLE_MAX_ARITY){
+            words = new long[]{defaultValue ? (-1L >>> (64 - size)) : 0L};
+        }else{
+            words = new long[size >>> 6];
+            if(defaultValue){
+                Arrays.fill(words, -1L);
+            }
+        }
+        this.truthTable = TruthTable.intern(arity, words);
     }
 
     /**
-     * Set the output value to be returned by the function when presented with the given ordered array of input values
-     * @param inputs The ordered array of input values for the function
+     * Set the output value to be returned by the function when presented with the given ordered array of input values.
+     * An input value may be null, meaning that the rule applies whatever the value of that input (a wildcard). A rule
+     * with wildcards sets every matching entry of the truth table at once, a whole table word at a time, without
+     * listing the matching inputs.
+     * @param inputs The ordered array of input values for the function, possibly including nulls
      * @param output The value to which the given ordered array of inputs should map
      */
     public void setRule(Boolean[] inputs, Boolean output){
+        long[] words = this.truthTable.copyWords();
+        applyRule(words, inputs, output);
+        this.truthTable = TruthTable.intern(this.arity, words);
+    }
+
+    private void applyRule(long[] words, Boolean[] inputs, Boolean output){
         if(inputs.length != this.getArity()){
             throw new IllegalArgumentException("The given input array does not match the arity of this vertex function. Inputs: " + Integer.toString(inputs.length) + ", Expected: " + Integer.toString(getArity()));
-        }else{
-            this.outputs[getOutputIndex(inputs)] = output;
         }
-    }
-
-    /**
-     * Apply {@link #setRule(Boolean[], Boolean)} to all the given input arrays. Assumes the two input lists have equal size.
-     * @param inputsCollection A collection of arrays of input values
-     * @param outputsCollection A collection of outputs corresponding to each array of input values
-     */
-    public void setRules(ArrayList<Boolean[]> inputsCollection, ArrayList<Boolean> outputsCollection){
-        for(int i = 0; i<inputsCollection.size(); i++){
-            setRule(inputsCollection.get(i), outputsCollection.get(i));
+        //The rule matches the input indices i with (i & careMask) == valueMask
+        int careMask = 0;
+        int valueMask = 0;
+        for(int i = 0; i<inputs.length; i++){
+            if(inputs[i] != null){
+                careMask |= 1 << i;
+                if(inputs[i]){
+                    valueMask |= 1 << i;
+                }
+            }
         }
+        setCube(words, careMask, valueMask, output);
     }
 
     /**
-     * When given an array of inputs with some values set to null, duplicate that array and replace null with 'true' in one
-     * copy and 'false' in the other copy. Do so recursively, expanding the input collection of arrays from their implicit form
-     * (involving possible 'nulls') to their explicit form.
-     * @param ruleInputs The ArrayList of Boolean[] arrays representing inputs to the function
-     * @param ruleOutputs The ArrayList of Boolean values representing outputs corresponding to each input array.
-     * @return A Pair containing a list of Boolean[] arrays of explicit input values and a list
-     * of Boolean values representing their corresponding outputs
+     * Set the output for every input index i with (i & careMask) == valueMask in the given packed table.
      */
-    public Pair<ArrayList<Boolean[]>,ArrayList<Boolean>> expandLazyRules(ArrayList<Boolean[]> ruleInputs, ArrayList<Boolean> ruleOutputs){
-        ArrayList<Boolean[]> newRules = new ArrayList<>();
-        ArrayList<Boolean> newOutputs = new ArrayList<>();
-        boolean moreNulls = false;
-        for(int b=0; b<ruleInputs.size(); b++){
-            Boolean[] currentRule = ruleInputs.get(b);
-            Boolean[] newB1 = new Boolean[currentRule.length];
-            Boolean[] newB2 = new Boolean[currentRule.length];
-            boolean split = false;
-            for(int i = 0; i<currentRule.length; i++){
-                Boolean value = currentRule[i];
-                if(value == null){
-                    if(!split) {
-                        newB1[i] = true;
-                        newB2[i] = false;
-                        split = true;
-                    }else{
-                        moreNulls=true;
-                    }
-                }else{
-                    newB1[i] = value;
-                    newB2[i] = value;
-                }
-            }
-            newRules.add(newB1);
-            newOutputs.add(ruleOutputs.get(b));
-            if(split){
-                newRules.add(newB2);
-                newOutputs.add(ruleOutputs.get(b));
+    private void setCube(long[] words, int careMask, int valueMask, boolean output){
+        //Which entries of a single table word match the inputs held within the word
+        long wordMask = -1L;
+        for(int j = 0; j<Math.min(this.arity, SMALL_TABLE_MAX_ARITY); j++){
+            if((careMask & (1 << j)) != 0){
+                wordMask &= (valueMask & (1 << j)) != 0 ? INPUT_PATTERNS[j] : ~INPUT_PATTERNS[j];
             }
         }
-        if(moreNulls){
-            Pair<ArrayList<Boolean[]>,ArrayList<Boolean>> recurse = expandLazyRules(newRules,newOutputs);
-            newRules = recurse.a;
-            newOutputs = recurse.b;
 
+        if(this.arity < SMALL_TABLE_MAX_ARITY){
+            wordMask &= -1L >>> (64 - (1 << this.arity));
         }
-        return new Pair(newRules,newOutputs);
+
+        //The remaining inputs select the table word. Visit every word index matching them.
+        int careWords = careMask >>> SMALL_TABLE_MAX_ARITY;
+        int valueWords = valueMask >>> SMALL_TABLE_MAX_ARITY;
+        int freeWords = ~careWords & (words.length - 1);
+        int subset = 0;
+        do{
+            int word = valueWords | subset;
+            words[word] = output ? (words[word] | wordMask) : (words[word] & ~wordMask);
+            subset = (subset - freeWords) & freeWords;
+        }while(subset != 0);
     }
 
     /**
-     * @return The arity of this function (i.e. its number of inputs)
+     * Find the output of this function for an input word. Bit i of the word is the value of input i, so the word is
+     * exactly the index into the truth table. This is the allocation-free evaluation path.
+     * @param inputWord The int-encoded input values
+     * @return The value of the function for the given inputs
      */
-    public int getArity(){
-        return this.arity;
+    public boolean evaluate(int inputWord){
+        return this.truthTable.evaluate(inputWord);
     }
 
     /**
-     * @param inputs The ordered array of input values, the location of whose corresponding output value is to be found.
-     * @return The index in the output array for the output corresponding to the given ordered array of input values.
+     * Apply {@link #setRule(Boolean[], Boolean)} to all the given input arrays, in order, so that later rules take
+     * precedence over earlier ones. Assumes the two input lists have equal size.
+     * @param inputsCollection A collection of arrays of input values
+     * @param outputsCollection A collection of outputs corresponding to each array of input values
      */
-    private int getOutputIndex(Boolean[] inputs){
-        int index = 0;
-        for(int i = 0; i<inputs.length; i++){
-            if(inputs[i]){
-                index += Math.pow(2,i);
-            }
+    public void setRules(ArrayList<Boolean[]> inputsCollection, ArrayList<Boolean> outputsCollection){
+        long[] words = this.truthTable.copyWords();
+        for(int i = 0; i<inputsCollection.size(); i++){
+            applyRule(words, inputsCollection.get(i), outputsCollection.get(i));
         }
-        return index;
+        this.truthTable = TruthTable.intern(this.arity, words);
+    }
+
+    /**
+     * @return The arity of this function (i.e. its number of inputs)
+     */
+    public int getArity(){
+        return this.arity;
     }
 
     /**
@@ -131,21 +158,30 @@ public class VertexFunction {
         if(inputEntities.length != this.getArity()){
             throw new IllegalArgumentException("The given input array does not match the arity of this vertex function. Inputs: " + Integer.toString(inputEntities.length) + ", Expected: " + Integer.toString(getArity()));
         }else {
-            Boolean[] inputs = new Boolean[getArity()];
-            for (int i = 0; i < getArity(); i++) {
-                inputs[i] = inputEntities[i].getStateAtTransportPosition(transportPosition);
+            int inputWord = 0;
+            for (int i = 0; i < inputEntities.length; i++) {
+                if (inputEntities[i].getStateAtTransportPosition(transportPosition)) {
+                    inputWord |= 1 << i;
+                }
             }
-            return this.outputs[getOutputIndex(inputs)];
+            return evaluate(inputWord);
         }
     }
 
+    /**
+     * @return The shared truth table of this function, as used by {@link CompiledNetwork}
+     */
+    TruthTable getTruthTable(){
+        return this.truthTable;
+    }
+
     /**
      * Null all of the properties of this vertex function instance
      */
     public void clear(){
         this.name = null;
         this.argumentNames = null;
-        this.outputs = null;
+        this.truthTable = null;
     }
 
     public String getName() {
@@ -154,10 +190,10 @@ public class VertexFunction {
 
     public void printRules(){
         System.out.println("Vertex Function '"+this.name+"':");
-        for(int i = 0; i<this.outputs.length; i++){
+        for(int i = 0; i<(1 << this.arity); i++){
             System.out.print(new StringBuilder(Integer.toBinaryString(i)).reverse().toString());
             System.out.print(" -> ");
-            System.out.print(this.outputs[i]);
+            System.out.print(evaluate(i));
             System.out.println();
         }
     }
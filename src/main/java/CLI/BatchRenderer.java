@@ -0,0 +1,290 @@
+package CLI;
+
+import BoolNets.BooleanNetwork;
+import BoolNets.Session;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A command-line entry point which renders sequence and network files to MIDI files, without starting JavaFX or opening
+ * a synthesizer.
+ *
+ * Usage: BatchRenderer [-j workers] [-o outputDirectory] [-s] [-g] [-t parallelNodeThreshold] [-v] file-or-directory...
+ *
+ * Each file is loaded into its own {@link Session}, simulated, sequenced and written as a .mid file, with up to the
+ * given number of files (by default, one per core) rendered at the same time. Every file in a given directory is
+ * rendered, except hidden files and .mid files. Without -o, each MIDI file is written next to its source file. The
+ * output of the interpreter is hidden unless -v is given.
+ *
+ * With -s, the tracks played by each sequence file are streamed to disk as the networks are stepped, instead of being
+ * sequenced first (see {@link Session#writeStreaming(File)}), so that very long scores can be rendered in a constant
+ * amount of memory. A network file's play command is still sequenced, but the network's states are streamed rather than
+ * kept (see {@link BoolNets.BooleanNetwork#setStreaming(boolean)}).
+ *
+ * With -g, each network is stepped by a class generated with its vertex functions inlined as straight-line code (see
+ * {@link BoolNets.StepFunctionGenerator}), which takes a little longer to load but is faster for long trajectories.
+ *
+ * With -t, networks with at least the given number of nodes have each time step split between threads (see
+ * {@link BoolNets.BooleanNetwork#setParallelNodeThreshold(int)}), so that the threshold can be tuned to the machine.
+ */
+public class BatchRenderer {
+
+    //The outcome of rendering a single file
+    private static class RenderResult {
+        private final File input;
+        private final File output;
+        private final long nanoseconds;
+        private final Exception error;
+        //The file loaded, but played no tracks, so there was nothing to write
+        private final boolean empty;
+
+        private RenderResult(File input, File output, long nanoseconds, Exception error, boolean empty) {
+            this.input = input;
+            this.output = output;
+            this.nanoseconds = nanoseconds;
+            this.error = error;
+            this.empty = empty;
+        }
+    }
+
+    public static void main(String[] args) {
+        int workerCount = Runtime.getRuntime().availableProcessors();
+        File outputDirectory = null;
+        boolean verbose = false;
+        boolean streaming = false;
+        boolean generated = false;
+        int parallelNodeThreshold = BooleanNetwork.DEFAULT_PARALLEL_NODE_THRESHOLD;
+        List<File> inputs = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-j") && i + 1 < args.length) {
+                try {
+                    workerCount = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    exitWithUsage("The worker count must be a number: " + args[i]);
+                }
+                if (workerCount < 1) {
+                    exitWithUsage("The worker count must be at least 1: " + args[i]);
+                }
+            } else if (arg.equals("-o") && i + 1 < args.length) {
+                outputDirectory = new File(args[++i]);
+            } else if (arg.equals("-s")) {
+                streaming = true;
+            } else if (arg.equals("-g")) {
+                generated = true;
+            } else if (arg.equals("-t") && i + 1 < args.length) {
+                try {
+                    parallelNodeThreshold = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    exitWithUsage("The parallel node threshold must be a number: " + args[i]);
+                }
+                if (parallelNodeThreshold < 1) {
+                    exitWithUsage("The parallel node threshold must be at least 1: " + args[i]);
+                }
+            } else if (arg.equals("-v")) {
+                verbose = true;
+            } else if (arg.startsWith("-")) {
+                exitWithUsage("Unknown option: " + arg);
+            } else {
+                addInputs(new File(arg), inputs);
+            }
+        }
+
+        if (inputs.isEmpty()) {
+            exitWithUsage("No files to render.");
+        }
+        if (outputDirectory != null && !outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            System.err.println("The output directory '" + outputDirectory.getPath() + "' could not be created.");
+            System.exit(2);
+        }
+
+        PrintStream report = System.out;
+        if (!verbose) {
+            hideStandardOutput();
+        }
+
+        int failures = renderAll(inputs, outputDirectory, Math.min(workerCount, inputs.size()), streaming, generated,
+                parallelNodeThreshold, report);
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * Render every input file, reporting the outcome of each as it completes (in input order)
+     *
+     * @return The number of files which could not be rendered
+     */
+    private static int renderAll(List<File> inputs, File outputDirectory, int workerCount, boolean streaming, boolean generated,
+                                 int parallelNodeThreshold, PrintStream report) {
+        long startTime = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+        List<Future<RenderResult>> results = new ArrayList<>();
+        for (File input : inputs) {
+            File output = getOutputFile(input, outputDirectory);
+            results.add(executor.submit(() -> render(input, output, streaming, generated, parallelNodeThreshold)));
+        }
+        executor.shutdown();
+
+        int failures = 0;
+        int skipped = 0;
+        for (Future<RenderResult> future : results) {
+            RenderResult result;
+            try {
+                result = future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                //render() catches everything it can, so this is an error in the JVM itself
+                executor.shutdownNow();
+                throw new IllegalStateException("Rendering was interrupted.", e);
+            }
+            String time = formatMilliseconds(result.nanoseconds);
+            if (result.empty) {
+                skipped++;
+                report.println("SKIPPED " + result.input.getPath() + " (" + time + "): no tracks are played");
+            } else if (result.error == null) {
+                report.println("OK      " + result.input.getPath() + " -> " + result.output.getPath() + " (" + time + ")");
+            } else {
+                failures++;
+                report.println("FAILED  " + result.input.getPath() + " (" + time + "): " + result.error.getMessage());
+            }
+        }
+        report.println(Integer.toString(inputs.size() - failures - skipped) + " of " + Integer.toString(inputs.size())
+                + " files rendered (" + Integer.toString(skipped) + " skipped, " + Integer.toString(failures) + " failed) by " + Integer.toString(workerCount) + " worker(s) in " + formatMilliseconds(System.nanoTime() - startTime) + ".");
+        return failures;
+    }
+
+    /**
+     * Load, simulate and sequence a single file in a session of its own, and write the resulting MIDI file. Files
+     * which only define networks (playing no tracks) are skipped.
+     *
+     * @param streaming Should the MIDI file be streamed to disk as the networks are stepped, rather than sequenced first?
+     * @param generated  Should the networks be stepped by generated code?
+     * @param parallelNodeThreshold The fewest nodes for which a network's time steps are split between threads
+     */
+    private static RenderResult render(File input, File output, boolean streaming, boolean generated, int parallelNodeThreshold) {
+        long startTime = System.nanoTime();
+        try {
+            Session session = load(input, streaming, generated, parallelNodeThreshold);
+            if (streaming && session.getNetworkCollection().getNetworkSequencer().hasFlaggedTracks()) {
+                session.writeStreaming(output);
+                return new RenderResult(input, output, System.nanoTime() - startTime, null, false);
+            }
+            //A network file's play command is sequenced as the file is loaded, so it can't be streamed to disk
+            session.sequence();
+            if (session.getSoundMaker().isEmpty()) {
+                return new RenderResult(input, output, System.nanoTime() - startTime, null, true);
+            }
+            session.getSoundMaker().writeSequence(output);
+            return new RenderResult(input, output, System.nanoTime() - startTime, null, false);
+        } catch (Exception e) {
+            return new RenderResult(input, output, System.nanoTime() - startTime, e, false);
+        } catch (StackOverflowError | OutOfMemoryError e) {
+            //One bad score shouldn't stop the rest of the batch
+            return new RenderResult(input, output, System.nanoTime() - startTime, new Exception(e.toString(), e), false);
+        }
+    }
+
+    /**
+     * Load the given file into a new session, which never opens a synthesizer, and sequence the tracks it plays
+     *
+     * @param input A sequence or network file
+     * @param parallelNodeThreshold The fewest nodes for which a network's time steps are split between threads
+     * @return The session, ready for its sequence to be written
+     * @throws Exception When the file cannot be loaded or sequenced
+     */
+    static Session loadAndSequence(File input, int parallelNodeThreshold) throws Exception {
+        Session session = load(input, false, false, parallelNodeThreshold);
+        session.sequence();
+        return session;
+    }
+
+    /**
+     * @param input     A sequence or network file
+     * @param streaming Should the networks' states be streamed when they are sequenced, rather than kept?
+     * @param generated Should the networks be stepped by generated code?
+     * @param parallelNodeThreshold The fewest nodes for which a network's time steps are split between threads
+     * @return A new session, which never opens a synthesizer, with the given file loaded
+     * @throws Exception When the file cannot be loaded, or it or a file it imports cannot be read or parsed
+     */
+    private static Session load(File input, boolean streaming, boolean generated, int parallelNodeThreshold) throws Exception {
+        Session session = new Session();
+        session.getSoundMaker().setPlaybackEnabled(false);
+        session.getNetworkCollection().setStreaming(streaming);
+        session.getNetworkCollection().setGeneratedStepFunctions(generated);
+        session.getNetworkCollection().setParallelNodeThreshold(parallelNodeThreshold);
+        session.load(input.getPath());
+        //Unlike in the GUI, a score with parts missing shouldn't be rendered as if it were complete
+        if (session.getLoadErrorCount() > 0) {
+            throw new Exception("The file '" + input.getPath() + "' could not be loaded: " + Integer.toString(session.getLoadErrorCount()) + " file(s) could not be read or parsed.");
+        }
+        return session;
+    }
+
+    /**
+     * The interpreter prints each parse tree as it runs. Keep the renderers' own output readable by discarding that.
+     */
+    static void hideStandardOutput() {
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+
+    /**
+     * Add the given file, or the files directly within the given directory, to the list of files to render
+     */
+    private static void addInputs(File path, List<File> inputs) {
+        if (path.isDirectory()) {
+            File[] children = path.listFiles();
+            if (children == null) {
+                return;
+            }
+            Arrays.sort(children);
+            for (File child : children) {
+                String name = child.getName();
+                if (child.isFile() && !name.startsWith(".") && !name.toLowerCase().endsWith(".mid")) {
+                    inputs.add(child);
+                }
+            }
+        } else {
+            inputs.add(path);
+        }
+    }
+
+    /**
+     * @param outputDirectory The directory in which to write the MIDI file, or null for the directory of the input
+     * @return The MIDI file to write for the given input, named after it
+     */
+    static File getOutputFile(File input, File outputDirectory) {
+        String name = input.getName();
+        int extension = name.lastIndexOf('.');
+        if (extension > 0) {
+            name = name.substring(0, extension);
+        }
+        File directory = outputDirectory != null ? outputDirectory : input.getAbsoluteFile().getParentFile();
+        return new File(directory, name + ".mid");
+    }
+
+    static String formatMilliseconds(long nanoseconds) {
+        return Long.toString(nanoseconds / 1000000) + " ms";
+    }
+
+    private static void exitWithUsage(String message) {
+        System.err.println(message);
+        System.err.println("Usage: BatchRenderer [-j workers] [-o outputDirectory] [-s] [-g] [-t parallelNodeThreshold] [-v] file-or-directory...");
+        System.exit(2);
+    }
+}
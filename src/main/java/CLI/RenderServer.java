@@ -0,0 +1,396 @@
+package CLI;
+
+import BoolNets.BooleanNetwork;
+import BoolNets.Session;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A long-running render service, which keeps the JVM warm (with the parser generated and the stepping engine compiled)
+ * between renders. It listens on the loopback interface only.
+ *
+ * Usage: RenderServer [-p port] [-j workers] [-q queueCapacity] [-o outputDirectory] [-t parallelNodeThreshold] [-v]
+ *
+ * POST /render?file=path renders the given sequence or network file and responds with the bytes of the MIDI file.
+ * POST /render?file=path&amp;output=path writes the MIDI file to the given path (or, for a directory, to a file within it
+ * named after the input) and responds with its absolute path. Output paths are taken relative to the output directory
+ * given at startup, and must lie within it; without -o, MIDI files are only returned, never written. GET /status reports
+ * the number of queued, running, completed and rejected jobs.
+ *
+ * A token is made up afresh each time the server starts, and printed when it starts listening. Every request must give
+ * it in a {@value #TOKEN_HEADER} header. Requests with an Origin header are refused, so that web pages open in a browser
+ * on the same machine cannot use the server.
+ *
+ * Each job is rendered in its own {@link Session} on a fixed pool of workers. At most the given number of jobs wait for
+ * a worker. Any more are rejected straight away with 503 (Service Unavailable), so that clients back off rather than
+ * piling up work.
+ *
+ * With -t, networks with at least the given number of nodes have each time step split between threads (see
+ * {@link BooleanNetwork#setParallelNodeThreshold(int)}), so that the threshold can be tuned to the machine.
+ */
+public class RenderServer {
+
+    private static final int DEFAULT_PORT = 8765;
+    private static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+    static final String TOKEN_HEADER = "X-Render-Token";
+    private static final int TOKEN_BYTES = 16;
+
+    private final HttpServer server;
+
+    //Renders the jobs. Its queue is bounded, and submitting to a full queue throws RejectedExecutionException.
+    private final ThreadPoolExecutor renderPool;
+
+    //Runs the HTTP exchanges, which mostly wait for their job to be rendered
+    private final ExecutorService exchangePool;
+
+    private final AtomicLong completedJobs = new AtomicLong();
+    private final AtomicLong failedJobs = new AtomicLong();
+    private final AtomicLong rejectedJobs = new AtomicLong();
+
+    //Must be given with every request
+    private final String token;
+
+    //The canonical directory within which MIDI files may be written, or null if none may be
+    private final File outputDirectory;
+
+    //The fewest nodes for which a network's time steps are split between threads
+    private final int parallelNodeThreshold;
+
+    /**
+     * @param port            The loopback port on which to listen, or 0 for any free port
+     * @param workerCount     How many jobs to render at the same time
+     * @param queueCapacity   How many jobs may wait for a worker before more are rejected
+     * @param outputDirectory The directory within which MIDI files may be written, or null if they may only be returned
+     * @param parallelNodeThreshold The fewest nodes for which a network's time steps are split between threads
+     * @throws IOException When the port cannot be bound, or the output directory cannot be resolved
+     */
+    public RenderServer(int port, int workerCount, int queueCapacity, File outputDirectory, int parallelNodeThreshold) throws IOException {
+        this.token = makeToken();
+        this.outputDirectory = outputDirectory != null ? outputDirectory.getCanonicalFile() : null;
+        this.parallelNodeThreshold = parallelNodeThreshold;
+        this.renderPool = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity));
+        this.exchangePool = Executors.newCachedThreadPool();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/render", this::handleRender);
+        server.createContext("/status", this::handleStatus);
+        server.setExecutor(exchangePool);
+    }
+
+    public static void main(String[] args) {
+        int port = DEFAULT_PORT;
+        int workerCount = Runtime.getRuntime().availableProcessors();
+        int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        File outputDirectory = null;
+        int parallelNodeThreshold = BooleanNetwork.DEFAULT_PARALLEL_NODE_THRESHOLD;
+        boolean verbose = false;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ((arg.equals("-p") || arg.equals("-j") || arg.equals("-q") || arg.equals("-t")) && i + 1 < args.length) {
+                int value = 0;
+                try {
+                    value = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    exitWithUsage("The value of " + arg + " must be a number: " + args[i]);
+                }
+                if (value < (arg.equals("-p") ? 0 : 1)) {
+                    exitWithUsage("The value of " + arg + " is out of range: " + args[i]);
+                }
+                if (arg.equals("-p")) {
+                    port = value;
+                } else if (arg.equals("-j")) {
+                    workerCount = value;
+                } else if (arg.equals("-t")) {
+                    parallelNodeThreshold = value;
+                } else {
+                    queueCapacity = value;
+                }
+            } else if (arg.equals("-o") && i + 1 < args.length) {
+                outputDirectory = new File(args[++i]);
+            } else if (arg.equals("-v")) {
+                verbose = true;
+            } else {
+                exitWithUsage("Unknown option: " + arg);
+            }
+        }
+
+        if (outputDirectory != null && !outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            System.err.println("The output directory '" + outputDirectory.getPath() + "' could not be created.");
+            System.exit(2);
+        }
+
+        PrintStream report = System.out;
+        if (!verbose) {
+            BatchRenderer.hideStandardOutput();
+        }
+
+        RenderServer renderServer;
+        try {
+            renderServer = new RenderServer(port, workerCount, queueCapacity, outputDirectory, parallelNodeThreshold);
+        } catch (IOException e) {
+            System.err.println("The render server could not listen on port " + Integer.toString(port) + ": " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(renderServer::stop));
+        renderServer.start();
+        report.println("Rendering with " + Integer.toString(workerCount) + " worker(s) and a queue of " + Integer.toString(queueCapacity)
+                + " at http://localhost:" + Integer.toString(renderServer.getPort()) + "/render");
+        report.println("Give this token in the " + TOKEN_HEADER + " header of every request: " + renderServer.getToken());
+        if (outputDirectory != null) {
+            report.println("MIDI files may be written within " + renderServer.outputDirectory.getPath());
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stop accepting jobs, and abandon any which are queued or running
+     */
+    public void stop() {
+        server.stop(0);
+        renderPool.shutdownNow();
+        exchangePool.shutdownNow();
+    }
+
+    /**
+     * @return The port on which the server is listening
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return The token which every request must give in its {@value #TOKEN_HEADER} header
+     */
+    public String getToken() {
+        return token;
+    }
+
+    private static String makeToken() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder text = new StringBuilder();
+        for (byte b : bytes) {
+            text.append(String.format("%02x", b));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Refuse the request unless it gives the token and doesn't come from a web page. A page can't set a custom header
+     * on a cross-origin request without the browser first asking the server, which isn't answered, and browsers add
+     * an Origin header to the requests pages make.
+     *
+     * @return Was the request allowed? If not, the refusal has been sent.
+     */
+    private boolean checkAllowed(HttpExchange exchange) throws IOException {
+        if (exchange.getRequestHeaders().containsKey("Origin")) {
+            sendText(exchange, 403, "Requests from web pages are not accepted.");
+            return false;
+        }
+        String given = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+        if (given == null || !MessageDigest.isEqual(given.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8))) {
+            sendText(exchange, 401, "The token printed when the server started must be given in the " + TOKEN_HEADER + " header.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param outputPath The path asked for, taken relative to the output directory
+     * @return The MIDI file to write, or null if it does not lie within the output directory
+     */
+    private File getOutputFile(File input, String outputPath) throws IOException {
+        if (outputDirectory == null) {
+            return null;
+        }
+        File output = new File(outputPath);
+        if (!output.isAbsolute()) {
+            output = new File(outputDirectory, outputPath);
+        }
+        output = output.getCanonicalFile();
+        if (output.isDirectory()) {
+            output = BatchRenderer.getOutputFile(input, output);
+        }
+        File parent = output.getParentFile();
+        while (parent != null && !parent.equals(outputDirectory)) {
+            parent = parent.getParentFile();
+        }
+        return parent != null ? output : null;
+    }
+
+    private void handleRender(HttpExchange exchange) throws IOException {
+        try {
+            if (!checkAllowed(exchange)) {
+                return;
+            }
+            if (!exchange.getRequestMethod().equals("POST")) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                sendText(exchange, 405, "Render jobs must be POSTed.");
+                return;
+            }
+            Map<String, String> parameters = getQueryParameters(exchange);
+            String inputPath = parameters.get("file");
+            if (inputPath == null) {
+                sendText(exchange, 400, "The file to render must be given, e.g. /render?file=/path/to/sequence");
+                return;
+            }
+            File input = new File(inputPath);
+            if (!input.isFile()) {
+                sendText(exchange, 404, "The file '" + inputPath + "' does not exist.");
+                return;
+            }
+            String outputPath = parameters.get("output");
+            File output = null;
+            if (outputPath != null) {
+                output = getOutputFile(input, outputPath);
+                if (output == null) {
+                    sendText(exchange, 403, outputDirectory == null
+                            ? "MIDI files may not be written: the server was started without an output directory."
+                            : "The output '" + outputPath + "' is not within the output directory.");
+                    return;
+                }
+            }
+
+            Future<byte[]> job;
+            final File jobOutput = output;
+            try {
+                job = renderPool.submit(() -> render(input, jobOutput, parallelNodeThreshold));
+            } catch (RejectedExecutionException e) {
+                rejectedJobs.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendText(exchange, 503, "The render queue is full. Please try again later.");
+                return;
+            }
+
+            byte[] midiFile;
+            try {
+                midiFile = job.get();
+            } catch (ExecutionException e) {
+                failedJobs.incrementAndGet();
+                Throwable cause = e.getCause();
+                sendText(exchange, 422, "The file '" + inputPath + "' could not be rendered: " + cause.getMessage());
+                return;
+            } catch (InterruptedException e) {
+                job.cancel(true);
+                Thread.currentThread().interrupt();
+                sendText(exchange, 503, "The render server is stopping.");
+                return;
+            }
+            completedJobs.incrementAndGet();
+
+            if (output == null) {
+                exchange.getResponseHeaders().set("Content-Type", "audio/midi");
+                exchange.sendResponseHeaders(200, midiFile.length);
+                try (OutputStream body = exchange.getResponseBody()) {
+                    body.write(midiFile);
+                }
+            } else {
+                sendText(exchange, 200, output.getAbsolutePath());
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleStatus(HttpExchange exchange) throws IOException {
+        try {
+            if (!checkAllowed(exchange)) {
+                return;
+            }
+            sendText(exchange, 200, "queued " + Integer.toString(renderPool.getQueue().size()) + "\n"
+                    + "running " + Integer.toString(renderPool.getActiveCount()) + "\n"
+                    + "completed " + Long.toString(completedJobs.get()) + "\n"
+                    + "failed " + Long.toString(failedJobs.get()) + "\n"
+                    + "rejected " + Long.toString(rejectedJobs.get()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Load and sequence the given file in a new session, then write the MIDI file
+     *
+     * @param output The file to write, or null to only return the bytes of the MIDI file
+     * @param parallelNodeThreshold The fewest nodes for which a network's time steps are split between threads
+     * @return The bytes of the MIDI file, or null when it was written to the output file
+     * @throws Exception When the file cannot be loaded, sequenced or written
+     */
+    private static byte[] render(File input, File output, int parallelNodeThreshold) throws Exception {
+        try {
+            Session session = BatchRenderer.loadAndSequence(input, parallelNodeThreshold);
+            if (session.getSoundMaker().isEmpty()) {
+                throw new Exception("No tracks are played.");
+            }
+            if (output != null) {
+                session.getSoundMaker().writeSequence(output);
+                return null;
+            }
+            ByteArrayOutputStream midiFile = new ByteArrayOutputStream();
+            session.getSoundMaker().writeSequence(midiFile);
+            return midiFile.toByteArray();
+        } catch (StackOverflowError | OutOfMemoryError e) {
+            //One bad score shouldn't stop the server
+            throw new Exception(e.toString(), e);
+        }
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = (text + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(bytes);
+        }
+    }
+
+    private static Map<String, String> getQueryParameters(HttpExchange exchange) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"), URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    private static void exitWithUsage(String message) {
+        System.err.println(message);
+        System.err.println("Usage: RenderServer [-p port] [-j workers] [-q queueCapacity] [-o outputDirectory] [-t parallelNodeThreshold] [-v]");
+        System.exit(2);
+    }
+}
@@ -1,27 +1,22 @@
 package GUI;
 
 import BoolNets.BooleanNetwork;
-import BoolNets.Identifier_Node;
 import BoolNets.NetworkCollection;
-import BoolNets.NodeState;
-import Parser.Interpreter;
-import Utilities.Pair;
+import BoolNets.Session;
+import Parser.DialogMaker;
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.layout.BorderPane;
-import javafx.scene.layout.Pane;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import Sound.MIDIMetaListener;
 import Sound.SoundMaker;
 
-import javax.sound.midi.InvalidMidiDataException;
-import javax.sound.midi.MidiUnavailableException;
 import java.io.File;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 
@@ -30,16 +25,15 @@ import java.util.Iterator;
  */
 public class MainWindow extends Application {
 
+    //Owns the networks and the MIDI sequence of the currently loaded file
+    Session session;
+
     //Responsible for producing and using the Java MIDI objects including sequencer and synthesiser
     SoundMaker soundMaker;
 
     //All the different BooleanNetwork instances involved in the current sequence file are encapsulated in this object
     NetworkCollection networkCollection;
 
-    //Reusable container variable where element a is an n-element collection of arrays of pre-computed states for each node,
-    //and element b is an n-element array of the identifier objects associated with each node
-    Pair<ArrayList<NodeState[]>, Identifier_Node[]> bufferedData;
-
     //Reusable container for an iterator through which all the BooleanNetwork instances in 'networkCollection' can be accessed
     Iterator<BooleanNetwork> networkIterator;
 
@@ -49,9 +43,15 @@ public class MainWindow extends Application {
     //Stores associations between a network's name string with a corresponding visualisation object to be used in the GUI
     HashMap<String, VisualisationRoll> visRolls;
 
-    //Passed into the SoundMaker instance, listens for all the Java sequencer's MetaEvents which it uses to trigger changes in the GUI visualisation.
+    //Should a file be played live when it is loaded, rather than sequenced first?
+    CheckBox live;
+
+    //Passed into the SoundMaker instance, listens for the time steps reached during playback, which it uses to trigger changes in the GUI visualisation.
     MIDIMetaListener midiMetaListener;
 
+    //Moves the visualisation rolls to the latest time step reached, once per frame
+    AnimationTimer frameTimer;
+
     public static void main(String[] args) {
         Application.launch(MainWindow.class, args);
     }
@@ -60,20 +60,32 @@ public class MainWindow extends Application {
     public void start(Stage stage) throws Exception {
         stage.setTitle("Musical Boolean Network Player");
 
+        DialogMaker.setDialogsEnabled(true);
         midiMetaListener = new MIDIMetaListener();
-        soundMaker = new SoundMaker(midiMetaListener);
-        networkCollection = new NetworkCollection(soundMaker);
+        frameTimer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                midiMetaListener.showLatestStep();
+            }
+        };
+        frameTimer.start();
+        session = new Session(midiMetaListener);
+        soundMaker = session.getSoundMaker();
+        networkCollection = session.getNetworkCollection();
         visRolls = new HashMap<>();
 
         BorderPane root = new BorderPane();
         tabPane = new TabPane();
         ToolBar toolBar = new ToolBar();
         Button reload = new Button("Reload");
+        live = new CheckBox("Live");
+        live.setTooltip(new Tooltip("Play by stepping the networks as they are heard, without sequencing them first"));
         TextField fileField = new TextField();
         Button openButton = new Button("Open");
         Button exportMidiButton = new Button("Export MIDI");
 
         toolBar.getItems().add(reload);
+        toolBar.getItems().add(live);
         toolBar.getItems().add(new Separator());
         toolBar.getItems().add(fileField);
         toolBar.getItems().add(openButton);
@@ -126,10 +138,8 @@ public class MainWindow extends Application {
     /**
      * Insert a tab containing a visualisation of the pre-computed state data from the given {@link BoolNets.BooleanNetwork}
      * @param bn The {@link BoolNets.BooleanNetwork} whose buffered data should be visualised
-     * @throws InvalidMidiDataException
-     * @throws MidiUnavailableException
      */
-    private void addTab(BooleanNetwork bn) throws InvalidMidiDataException, MidiUnavailableException {
+    private void addTab(BooleanNetwork bn) {
         Tab tab = new Tab();
 
         //See if there already is a VisualisationRoll instance with this name that we can reuse
@@ -141,14 +151,29 @@ public class MainWindow extends Application {
         //Register the VisualisationRoll with our MIDI Meta-event listener so that it can be updated dynamically during playback
         midiMetaListener.addVisualisationRoll(bn.getName(), vRoll);
 
-        bufferedData = bn.getBufferedStates(true, true);
-        vRoll.addData(bufferedData.a, bufferedData.b, bn);
-        System.out.println(bufferedData.a);
-        ScrollPane scrollPane = new ScrollPane();
-        Pane contentPane = new Pane();
-        contentPane.getChildren().add(vRoll);
-        scrollPane.setContent(contentPane);
-        tab.setContent(scrollPane);
+        vRoll.setNetwork(bn);
+        //An overview of the whole roll, which can be clicked to jump to any part of it
+        OverviewStrip overview = new OverviewStrip(vRoll);
+        overview.setNetwork(bn);
+        BorderPane content = new BorderPane();
+        content.setCenter(vRoll);
+        content.setRight(overview);
+        tab.setContent(content);
+        tab.setText(bn.getName());
+        tabPane.getTabs().add(tab);
+    }
+
+
+    /**
+     * Insert a tab for the given {@link BoolNets.BooleanNetwork} while it is played live. Its states are stepped as they
+     * are heard and not saved, so there is nothing to visualise, and the tab only says so.
+     * @param bn The {@link BoolNets.BooleanNetwork} being played live
+     */
+    private void addLiveTab(BooleanNetwork bn) {
+        Tab tab = new Tab();
+        Label placeholder = new Label("Live playback isn't visualised. Untick Live and reload to see this network's states.");
+        placeholder.setWrapText(true);
+        tab.setContent(new BorderPane(placeholder));
         tab.setText(bn.getName());
         tabPane.getTabs().add(tab);
     }
@@ -161,30 +186,45 @@ public class MainWindow extends Application {
      * @throws Exception
      */
     public void runCode(String fileLocation) throws Exception {
-        soundMaker.clear();
         for (VisualisationRoll vr : this.visRolls.values()) {
             vr.clear();
         }
         tabPane.getTabs().clear();
         midiMetaListener.clear();
 
-        Interpreter interpreter = new Interpreter();
-        if (networkCollection != null) {
-            networkCollection.clearEverything();
-        }
-        interpreter.parseAndRun(fileLocation, soundMaker, networkCollection);
+        session.load(fileLocation);
         networkIterator = networkCollection.getNetworksIterator();
 
-        //Prepare the data for playback, but don't play it yet
-        networkCollection.getNetworkSequencer().sequenceTracks();
+        //Prepare the data for playback, but don't play it yet. When playing live, nothing is prepared.
+        boolean playLive = live.isSelected();
+        if (!playLive) {
+            session.sequence();
+        }
 
         while (networkIterator.hasNext()) {
             BooleanNetwork network = networkIterator.next();
-            addTab(network);
+            if (playLive) {
+                addLiveTab(network);
+            } else {
+                addTab(network);
+            }
         }
 
         //After the GUI is ready, start playing, if the interpreter encountered a play command
-        networkCollection.getNetworkSequencer().playTracks();
+        if (playLive) {
+            session.playLive();
+        } else {
+            networkCollection.getNetworkSequencer().playTracks();
+        }
+    }
+
+    /**
+     * Stop any live playback when the window is closed
+     */
+    @Override
+    public void stop() {
+        frameTimer.stop();
+        session.stopLive();
     }
 
 }
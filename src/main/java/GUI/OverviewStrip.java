@@ -0,0 +1,163 @@
+package GUI;
+
+import BoolNets.ActivityPyramid;
+import BoolNets.BooleanNetwork;
+import BoolNets.BooleanNode;
+import BoolNets.StateHistory;
+import javafx.application.Platform;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Tooltip;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A narrow strip shown beside a {@link VisualisationRoll}, giving an overview of the whole of a network's saved states.
+ * The strip's full height stands for every time step, and each row of pixels is shaded by the fraction of the network's
+ * nodes which are true over the steps it stands for, found from an {@link ActivityPyramid}. The part of the roll in
+ * view is outlined, and clicking or dragging on the strip scrolls the roll to that point.
+ *
+ * The pyramid is made on a background thread shared by every strip, since for a long trajectory it takes a while, from
+ * copies of the saved states taken when the network is shown. Until it is ready, the strip is left blank, but can still
+ * be used to scroll the roll. If it can't be made, the strip is greyed out.
+ */
+public class OverviewStrip extends Region {
+
+    private static final double STRIP_WIDTH = 24;
+
+    private static final Color INACTIVE = Color.BLACK;
+    private static final Color ACTIVE = Color.POWDERBLUE;
+    private static final Color VIEWPORT = Color.color(0, 0.6353, 0.698, 0.4);
+    private static final Color UNAVAILABLE = Color.DIMGRAY;
+
+    //Makes the pyramids for every strip, one at a time
+    private static final ExecutorService SUMMARISER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Overview summariser");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Canvas canvas = new Canvas();
+    private final VisualisationRoll roll;
+
+    //Shown over the strip when there is no overview
+    private final Tooltip failedTooltip = new Tooltip("No overview could be made of this network's states.");
+
+    //The activity of the network shown, or null until it has been made
+    private ActivityPyramid pyramid;
+    //Which network is shown. A pyramid made for an earlier network is ignored, or not made at all if it hasn't started.
+    private volatile BooleanNetwork network;
+
+    //Could the pyramid not be made for the network shown?
+    private boolean failed = false;
+
+    //The number of time steps shown, known before the pyramid is ready
+    private int stepCount = 0;
+
+    /**
+     * @param roll The roll which the strip gives an overview of, and scrolls
+     */
+    public OverviewStrip(VisualisationRoll roll) {
+        this.roll = roll;
+        getChildren().add(canvas);
+        setMinWidth(STRIP_WIDTH);
+        setPrefWidth(STRIP_WIDTH);
+        setMaxWidth(STRIP_WIDTH);
+
+        roll.scrollPositionProperty().addListener((observable, oldValue, newValue) -> draw());
+        roll.heightProperty().addListener((observable, oldValue, newValue) -> draw());
+        canvas.addEventHandler(MouseEvent.MOUSE_PRESSED, e -> jumpTo(e.getY()));
+        canvas.addEventHandler(MouseEvent.MOUSE_DRAGGED, e -> jumpTo(e.getY()));
+    }
+
+    /**
+     * Show an overview of the saved states of the given network. The states are copied here, then summarised on a
+     * background thread, so the network may go on changing meanwhile.
+     * @param net The network which is shown in the roll
+     */
+    public void setNetwork(BooleanNetwork net) {
+        network = net;
+        pyramid = null;
+        failed = false;
+        Tooltip.uninstall(canvas, failedTooltip);
+        BooleanNode[] nodes = net.getAllNodes().toArray(new BooleanNode[0]);
+        StateHistory[] histories = new StateHistory[nodes.length];
+        stepCount = 0;
+        for (int n = 0; n < nodes.length; n++) {
+            histories[n] = nodes[n].getSavedStates().copy();
+            stepCount = Math.max(stepCount, histories[n].size());
+        }
+        draw();
+
+        CompletableFuture.supplyAsync(() -> network == net ? new ActivityPyramid(histories) : null, SUMMARISER)
+                .whenComplete((made, error) -> Platform.runLater(() -> {
+                    if (network != net) {
+                        return;
+                    }
+                    if (error != null) {
+                        error.printStackTrace();
+                        failed = true;
+                        Tooltip.install(canvas, failedTooltip);
+                    } else {
+                        pyramid = made;
+                    }
+                    draw();
+                }));
+    }
+
+    @Override
+    protected void layoutChildren() {
+        canvas.setWidth(getWidth());
+        canvas.setHeight(getHeight());
+        draw();
+    }
+
+    /**
+     * Scroll the roll so that the time step at the given height on the strip is in the middle of its visible area
+     */
+    private void jumpTo(double y) {
+        if (stepCount > 0 && canvas.getHeight() > 0) {
+            roll.showRow(y / canvas.getHeight() * stepCount);
+        }
+    }
+
+    /**
+     * Shade each row of pixels by the activity of the steps it stands for, and outline the steps in view in the roll
+     */
+    private void draw() {
+        GraphicsContext g = canvas.getGraphicsContext2D();
+        double width = canvas.getWidth();
+        double height = canvas.getHeight();
+        g.clearRect(0, 0, width, height);
+        if (stepCount == 0 || height <= 0) {
+            return;
+        }
+        double stepsPerPixel = stepCount / height;
+
+        if (failed) {
+            g.setFill(UNAVAILABLE);
+            g.fillRect(0, 0, width, height);
+        } else if (pyramid != null) {
+            int pixels = (int) Math.ceil(height);
+            for (int y = 0; y < pixels; y++) {
+                int firstStep = (int) (y * stepsPerPixel);
+                int endStep = Math.max(firstStep + 1, (int) ((y + 1) * stepsPerPixel));
+                if (firstStep >= stepCount) {
+                    break;
+                }
+                g.setFill(INACTIVE.interpolate(ACTIVE, pyramid.getActivity(firstStep, endStep)));
+                g.fillRect(0, y, width, 1);
+            }
+        }
+
+        double top = roll.getFirstVisibleRow() / stepsPerPixel;
+        double viewHeight = Math.max(2, roll.getVisibleRowCount() / stepsPerPixel);
+        g.setFill(VIEWPORT);
+        g.fillRect(0, top, width, viewHeight);
+    }
+}
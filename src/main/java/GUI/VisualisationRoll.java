@@ -1,88 +1,117 @@
 package GUI;
 
 import BoolNets.BooleanNetwork;
-import BoolNets.Identifier_Node;
-import BoolNets.NodeState;
-import javafx.scene.Group;
-import javafx.scene.layout.StackPane;
+import BoolNets.BooleanNode;
+import BoolNets.StateHistory;
+import Sound.SoundMaker;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.geometry.Orientation;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.ScrollBar;
+import javafx.scene.control.Tooltip;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.Region;
 import javafx.scene.paint.Color;
-import javafx.scene.shape.Circle;
-import javafx.scene.shape.Rectangle;
-
-import javax.sound.midi.InvalidMidiDataException;
-import javax.sound.midi.MidiUnavailableException;
-import java.util.ArrayList;
 
 /**
  * A JavaFX {@link javafx.scene.Node} (- not to be confused with a {@link BoolNets.BooleanNode}) which can contain a graphical depiction of the sequence of states occupied by a network sequence.
  * The visualisation is a vertical collection of rows of cells. Each row has one cell corresponding to each node of a network.
  * The states of the cells reflect the states and properties of the network nodes, being turned on or turned off and
- * playing a note when on or playing no note when on. The successive rows progress down a scroll pane, with each row representing
+ * playing a note when on or playing no note when on. The successive rows progress down the roll, with each row representing
  * the state of the network at a successive time step.
  *
- * This class has known issues with efficiency. Repeated instantiation of complex JavaFX nodes uses a lot of memory, causing the
- * GUI to lag and eventually crash when networks/sequences are repeatedly reloaded.
+ * The cells are drawn onto a {@link Canvas} the size of the visible area, straight from the saved states of the nodes
+ * (see {@link StateHistory}), and only the cells in view are drawn. No JavaFX node is made per cell, so the memory used
+ * doesn't depend on the number of nodes or time steps. Clicking a cell plays its node's note, and hovering over a cell
+ * shows its node's label, by working out which cell is under the mouse.
  */
-public class VisualisationRoll extends StackPane {
+public class VisualisationRoll extends Region {
 
     private final int CELL_WIDTH = 20;
     private final int CELL_HEIGHT = 20;
     //The circles mark out every four beats and are positioned at the left of the pane.
     private final int CIRCLE_RADIUS = 1;
 
-    private ArrayList<VisualisationCell[]> cells = new ArrayList<>();
-    private Group content = new Group();
+    private static final Color ACTIVE_PLAY = Color.POWDERBLUE;
+    private static final Color ACTIVE_SILENT = Color.SLATEGRAY;
+    private static final Color INACTIVE_PLAY = Color.DARKGRAY;
+    private static final Color INACTIVE_SILENT = Color.BLACK;
+    //The bar overlaid on top of the cells to indicate, during playback, where the player's current position is
+    private static final Color TICKER = Color.color(0, 0.6353, 0.698, 0.4);
 
-    //An explicit px offset for every cell in the x-direction.
-    private int offsetX = 0;
-    //An offset in the y-direction by a number of cell-heights (not px values).
-    private int rowOffsetY = 0;
+    //The visible part of the roll
+    private final Canvas canvas = new Canvas();
+    private final ScrollBar verticalScrollBar = new ScrollBar();
+    private final ScrollBar horizontalScrollBar = new ScrollBar();
 
-    //A bar overlaid on top of the cells to indicate, during playback, where the player's current position is
-    private Rectangle ticker;
+    //Shows the label of the node under the mouse. Only installed while the mouse is over a cell.
+    private final Tooltip tooltip = new Tooltip();
+    private boolean tooltipInstalled = false;
+    //The column of the cell under the mouse, or -1
+    private int hoveredColumn = -1;
 
-    /**
-     * Fill in the data with which the visualisation will be produced and make the visual objects for the GUI, if required.
-     * @param data A list of {@link NodeState} arrays where the j-th element of the i-th array in the list is the state of a
-     *             unique node in the network at time step i. We expect that each VisualisationRoll has data from only one
-     *             {@link BooleanNetwork} instance, so this input data tracks the evolution of only one network.
-     * @param nodeID An array of {@link Identifier_Node} instances corresponding positionally to the nodes
-     *               whose {@link NodeState} arrays are given in the 'data' parameter. The ID in position n corresponds to the NodeState
-     *               in position n of any and all of the NodeState arrays in 'data'.
-     * @param net The {@link BooleanNetwork} instance that we assume provided the data for this VisualisationRoll
-     * @throws InvalidMidiDataException When {@link VisualisationCell} does so.
-     * @throws MidiUnavailableException When {@link VisualisationCell} does so.
-     */
-    public void addData(ArrayList<NodeState[]> data, Identifier_Node[] nodeID, BooleanNetwork net) throws InvalidMidiDataException, MidiUnavailableException {
-        if (data.size() > 0) {
-
-            int rowWidth = data.get(0).length;
-            ticker = new Rectangle(CELL_WIDTH, 0, rowWidth * CELL_WIDTH, CELL_HEIGHT);
-            ticker.setFill(Color.color(0, 0.6353, 0.698, 0.4));
-
-            VisualisationCell[] rowCells = new VisualisationCell[rowWidth];
-            content = new Group();
-            for (int row = 0; row < data.size(); row++) {
-                for (int col = 0; col < data.get(0).length; col++) {
-
-                    VisualisationCell vc = new VisualisationCell((1 + col + offsetX) * CELL_WIDTH, (rowOffsetY + row) * CELL_HEIGHT, CELL_WIDTH, CELL_HEIGHT, data.get(row)[col], nodeID[col], net);
-                    content.getChildren().add(vc);
-                    rowCells[col] = vc;
-
-                    if (col == 0) {
-                        if (row % 4 == 0) {
-                            Circle c = new Circle(offsetX + CELL_WIDTH / 2, (CELL_WIDTH / 2) + (rowOffsetY + row) * CELL_HEIGHT, CIRCLE_RADIUS, Color.GRAY);
-                            content.getChildren().add(c);
-                        }
-                    }
-                }
-                cells.add(rowCells);
+    //For each column, from left to right: the saved states of its node, whether the node is silent, its note and its label
+    private StateHistory[] histories = new StateHistory[0];
+    private boolean[] silent = new boolean[0];
+    private Integer[] notes = new Integer[0];
+    private String[] labels = new String[0];
+    //The number of rows, which is the largest number of saved states of any node
+    private int rowCount = 0;
+
+    //Plays a column's note when it is clicked
+    private SoundMaker soundMaker;
+
+    //The row of the ticker
+    private int tickerRow = 0;
+
+    public VisualisationRoll() {
+        verticalScrollBar.setOrientation(Orientation.VERTICAL);
+        verticalScrollBar.setUnitIncrement(CELL_HEIGHT);
+        horizontalScrollBar.setUnitIncrement(CELL_WIDTH);
+        verticalScrollBar.valueProperty().addListener((observable, oldValue, newValue) -> draw());
+        horizontalScrollBar.valueProperty().addListener((observable, oldValue, newValue) -> draw());
+        getChildren().addAll(canvas, verticalScrollBar, horizontalScrollBar);
+
+        canvas.addEventHandler(MouseEvent.MOUSE_CLICKED, e -> {
+            int column = getColumnAt(e.getX(), e.getY());
+            if (column >= 0 && notes[column] != null) {
+                soundMaker.playNote(notes[column]);
             }
-            rowOffsetY += data.size();
-            content.getChildren().add(ticker);
-            getChildren().add(content);
+        });
+        canvas.addEventHandler(MouseEvent.MOUSE_MOVED, e -> showTooltip(getColumnAt(e.getX(), e.getY())));
+        canvas.addEventHandler(MouseEvent.MOUSE_EXITED, e -> showTooltip(-1));
+        addEventHandler(ScrollEvent.SCROLL, e -> {
+            scrollBy(verticalScrollBar, -e.getDeltaY());
+            scrollBy(horizontalScrollBar, -e.getDeltaX());
+        });
+    }
 
+    /**
+     * Show the saved states of the given network. The states are read from the network's nodes whenever they are
+     * drawn, so they aren't copied.
+     * @param net The {@link BooleanNetwork} instance whose saved states are shown by this VisualisationRoll. The columns are
+     *            its nodes, sorted by {@link BooleanNetwork#getSortedNodes()}.
+     */
+    public void setNetwork(BooleanNetwork net) {
+        BooleanNode[] nodes = net.getSortedNodes();
+        histories = new StateHistory[nodes.length];
+        silent = new boolean[nodes.length];
+        notes = new Integer[nodes.length];
+        labels = new String[nodes.length];
+        rowCount = 0;
+        for (int column = 0; column < nodes.length; column++) {
+            histories[column] = nodes[column].getSavedStates();
+            silent[column] = nodes[column].isSilent();
+            notes[column] = nodes[column].getMidiNote();
+            labels[column] = nodes[column].getID().getLabel();
+            rowCount = Math.max(rowCount, histories[column].size());
         }
+        soundMaker = net.getSoundMaker();
+        tickerRow = 0;
+        requestLayout();
+        draw();
     }
 
 
@@ -91,19 +120,180 @@ public class VisualisationRoll extends StackPane {
      * @param tickerPos
      */
     public void tick(Integer tickerPos) {
-        ticker.setY(tickerPos * CELL_HEIGHT);
-        ticker.toFront();
+        if (tickerPos != tickerRow) {
+            tickerRow = tickerPos;
+            draw();
+        }
+    }
+
+    /**
+     * Scroll so that the given row is in the middle of the visible area, or as near as it can be
+     * @param row The row, which may be fractional
+     */
+    public void showRow(double row) {
+        scrollBy(verticalScrollBar, row * CELL_HEIGHT - canvas.getHeight() / 2 - verticalScrollBar.getValue());
+    }
+
+    /**
+     * @return The row at the top of the visible area, which may be fractional
+     */
+    public double getFirstVisibleRow() {
+        return verticalScrollBar.getValue() / CELL_HEIGHT;
+    }
+
+    /**
+     * @return How many rows fit in the visible area, which may be fractional
+     */
+    public double getVisibleRowCount() {
+        return canvas.getHeight() / CELL_HEIGHT;
+    }
 
+    /**
+     * @return The vertical scroll position in px, which changes whenever different rows are scrolled into view
+     */
+    public ReadOnlyDoubleProperty scrollPositionProperty() {
+        return verticalScrollBar.valueProperty();
     }
 
     public void clear() {
-        cells.clear();
-        content.getChildren().clear();
-        rowOffsetY = 0;
-        offsetX = 0;
-        System.gc();
+        histories = new StateHistory[0];
+        silent = new boolean[0];
+        notes = new Integer[0];
+        labels = new String[0];
+        rowCount = 0;
+        soundMaker = null;
+        tickerRow = 0;
+        showTooltip(-1);
+        requestLayout();
+        draw();
+    }
+
+    @Override
+    protected void layoutChildren() {
+        double barWidth = verticalScrollBar.prefWidth(-1);
+        double barHeight = horizontalScrollBar.prefHeight(-1);
+        double viewWidth = Math.max(0, getWidth() - barWidth);
+        double viewHeight = Math.max(0, getHeight() - barHeight);
+
+        canvas.setWidth(viewWidth);
+        canvas.setHeight(viewHeight);
+        verticalScrollBar.resizeRelocate(viewWidth, 0, barWidth, viewHeight);
+        horizontalScrollBar.resizeRelocate(0, viewHeight, viewWidth, barHeight);
+
+        setScrollRange(verticalScrollBar, (double) rowCount * CELL_HEIGHT, viewHeight);
+        setScrollRange(horizontalScrollBar, (double) (histories.length + 1) * CELL_WIDTH, viewWidth);
+        draw();
+    }
 
+    /**
+     * Fit the given scroll bar to content of the given size, of which the given amount is visible at once
+     */
+    private void setScrollRange(ScrollBar scrollBar, double contentSize, double viewSize) {
+        double max = Math.max(0, contentSize - viewSize);
+        scrollBar.setMax(max);
+        scrollBar.setVisibleAmount(max * viewSize / Math.max(1, contentSize));
+        scrollBar.setBlockIncrement(viewSize);
+        if (scrollBar.getValue() > max) {
+            scrollBar.setValue(max);
+        }
+    }
+
+    private void scrollBy(ScrollBar scrollBar, double delta) {
+        scrollBar.setValue(Math.max(scrollBar.getMin(), Math.min(scrollBar.getMax(), scrollBar.getValue() + delta)));
+    }
+
+    /**
+     * Draw the cells, beat markers and ticker which are in view
+     */
+    private void draw() {
+        GraphicsContext g = canvas.getGraphicsContext2D();
+        double viewWidth = canvas.getWidth();
+        double viewHeight = canvas.getHeight();
+        double scrollX = horizontalScrollBar.getValue();
+        double scrollY = verticalScrollBar.getValue();
+        g.clearRect(0, 0, viewWidth, viewHeight);
+
+        int firstRow = (int) (scrollY / CELL_HEIGHT);
+        int endRow = Math.min(rowCount, (int) Math.ceil((scrollY + viewHeight) / CELL_HEIGHT));
+        //Column n is drawn one cell to the right of n, after the beat markers
+        int firstColumn = Math.max(0, (int) (scrollX / CELL_WIDTH) - 1);
+        int endColumn = Math.min(histories.length, (int) Math.ceil((scrollX + viewWidth) / CELL_WIDTH));
+        if (firstRow >= endRow) {
+            return;
+        }
+
+        g.save();
+        g.translate(-scrollX, -scrollY);
+        g.setStroke(Color.WHITE);
+        g.setLineWidth(1);
+        for (int column = firstColumn; column < endColumn; column++) {
+            StateHistory history = histories[column];
+            int columnEndRow = Math.min(endRow, history.size());
+            double x = (1 + column) * CELL_WIDTH;
+            long word = 0L;
+            for (int row = firstRow; row < columnEndRow; row++) {
+                if (row == firstRow || (row & 63) == 0) {
+                    word = history.getWord(row >>> 6);
+                }
+                boolean active = ((word >>> row) & 1L) != 0;
+                if (active) {
+                    g.setFill(silent[column] ? ACTIVE_SILENT : ACTIVE_PLAY);
+                } else {
+                    g.setFill(silent[column] ? INACTIVE_SILENT : INACTIVE_PLAY);
+                }
+                double y = row * CELL_HEIGHT;
+                g.fillRect(x, y, CELL_WIDTH, CELL_HEIGHT);
+                g.strokeRect(x, y, CELL_WIDTH, CELL_HEIGHT);
+            }
+        }
+
+        if (scrollX < CELL_WIDTH) {
+            g.setFill(Color.GRAY);
+            for (int row = (firstRow + 3) & ~3; row < endRow; row += 4) {
+                g.fillOval(CELL_WIDTH / 2 - CIRCLE_RADIUS, CELL_HEIGHT / 2 + row * CELL_HEIGHT - CIRCLE_RADIUS, 2 * CIRCLE_RADIUS, 2 * CIRCLE_RADIUS);
+            }
+        }
+
+        if (tickerRow >= firstRow && tickerRow < endRow) {
+            g.setFill(TICKER);
+            g.fillRect(CELL_WIDTH, tickerRow * CELL_HEIGHT, histories.length * CELL_WIDTH, CELL_HEIGHT);
+        }
+        g.restore();
     }
 
+    /**
+     * @param x The x coordinate on the canvas
+     * @param y The y coordinate on the canvas
+     * @return The column of the cell at the given point, or -1 if there is no cell there
+     */
+    private int getColumnAt(double x, double y) {
+        int column = (int) Math.floor((x + horizontalScrollBar.getValue()) / CELL_WIDTH) - 1;
+        int row = (int) Math.floor((y + verticalScrollBar.getValue()) / CELL_HEIGHT);
+        if (column < 0 || column >= histories.length || row < 0 || row >= histories[column].size()) {
+            return -1;
+        }
+        return column;
+    }
 
+    /**
+     * Show the label of the given column's node as the tooltip, or hide the tooltip if the column is -1
+     */
+    private void showTooltip(int column) {
+        if (column == hoveredColumn) {
+            return;
+        }
+        hoveredColumn = column;
+        if (column < 0) {
+            if (tooltipInstalled) {
+                Tooltip.uninstall(canvas, tooltip);
+                tooltipInstalled = false;
+            }
+        } else {
+            tooltip.setText(labels[column]);
+            if (!tooltipInstalled) {
+                Tooltip.install(canvas, tooltip);
+                tooltipInstalled = true;
+            }
+        }
+    }
 }
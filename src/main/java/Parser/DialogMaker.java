@@ -1,14 +1,41 @@
 package Parser;
 
+import javafx.application.Platform;
 import javafx.scene.control.Alert;
 
+/**
+ * Shows error and information dialogs. Dialogs are only shown once the GUI has enabled them, and always on the JavaFX
+ * application thread: messages from other threads are passed to it, and shown once it is free. Otherwise (for instance
+ * during a headless render) the messages are written to the standard error stream. The dialogs are created when first
+ * shown, so no JavaFX toolkit is needed unless they are.
+ */
 public class DialogMaker {
 
+    //Set by the GUI once the JavaFX toolkit is running
+    private static volatile boolean dialogsEnabled = false;
 
-    static Alert errorDialog = new Alert(Alert.AlertType.ERROR);
-    static Alert infoDialog = new Alert(Alert.AlertType.INFORMATION);
+    private static Alert errorDialog;
+    private static Alert infoDialog;
+
+    /**
+     * @param enabled Should messages be shown as dialogs (true), or written to the standard error stream (false)?
+     */
+    public static void setDialogsEnabled(boolean enabled){
+        dialogsEnabled = enabled;
+    }
 
     public static void showErrorDialog(String header, String message){
+        if (!dialogsEnabled) {
+            System.err.println("Error: " + header + ": " + message);
+            return;
+        }
+        if (!Platform.isFxApplicationThread()) {
+            Platform.runLater(() -> showErrorDialog(header, message));
+            return;
+        }
+        if (errorDialog == null) {
+            errorDialog = new Alert(Alert.AlertType.ERROR);
+        }
         errorDialog.setTitle("Error");
         errorDialog.setHeaderText(header);
         errorDialog.setContentText(message);
@@ -16,6 +43,17 @@ public class DialogMaker {
     }
 
     public static void showInfoDialog(String header, String message){
+        if (!dialogsEnabled) {
+            System.err.println("Information: " + header + ": " + message);
+            return;
+        }
+        if (!Platform.isFxApplicationThread()) {
+            Platform.runLater(() -> showInfoDialog(header, message));
+            return;
+        }
+        if (infoDialog == null) {
+            infoDialog = new Alert(Alert.AlertType.INFORMATION);
+        }
         infoDialog.setTitle("Information");
         infoDialog.setHeaderText(header);
         infoDialog.setContentText(message);
@@ -5,7 +5,6 @@ import BoolNets.NetworkCollection;
 import BoolNets.VertexFunction;
 import Sound.NetTrack;
 import Utilities.IO;
-import Utilities.Pair;
 import org.parboiled.Parboiled;
 import org.parboiled.errors.ErrorUtils;
 import org.parboiled.parserunners.ReportingParseRunner;
@@ -24,8 +23,12 @@ public class Interpreter {
     ArrayList<String> visitedFiles = new ArrayList<>();
     Stack<CodeType> codeTypeStack = new Stack<CodeType>();
 
+    //How many files could not be read or parsed
+    private int errorCount = 0;
+
     public void clear() {
         visitedFiles.clear();
+        errorCount = 0;
     }
 
     public void parseAndRun(String fileLocation, SoundMaker soundMaker, NetworkCollection netCollection) throws Exception {
@@ -36,8 +39,10 @@ public class Interpreter {
         String fileName = file.getName();
         String fileDirectory = file.getParent();
 
-        if (input != null) {
-            Parser parser = Parboiled.createParser(Parser.class);
+        if (input == null) {
+            errorCount += 1;
+        } else {
+            Parser parser = createParser();
             ReportingParseRunner rpr = new ReportingParseRunner(parser.InputLine());
             ParsingResult<?> result = rpr.run(input);
 
@@ -70,6 +75,21 @@ public class Interpreter {
         }
     }
 
+    /**
+     * @return How many files could not be read or parsed since this interpreter was created or cleared
+     */
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Parboiled generates the parser class the first time a parser is created. Creation is serialised so that
+     * interpreters on several threads cannot try to define the class twice.
+     */
+    private static synchronized Parser createParser() {
+        return Parboiled.createParser(Parser.class);
+    }
+
     /**
      * Evaluate the semantics of a "parse tree" node, running the appropriate Java code as required.
      *
@@ -167,8 +187,7 @@ public class Interpreter {
             ArrayList<Boolean> ruleOut = ((VertexFunction_TreeNode) value).getFunctionRuleOutputs();
             VertexFunction vf = net.addVertexFunction(argumentNames.length, name, argumentNames, defaultOut);
 
-            Pair<ArrayList<Boolean[]>, ArrayList<Boolean>> expandedData = vf.expandLazyRules(ruleIns2, ruleOut);
-            vf.setRules(expandedData.a, expandedData.b);
+            vf.setRules(ruleIns2, ruleOut);
 
         } else if (value instanceof BooleanNode_FunctionAssignment_TreeNode) {
             String nodeLabel = ((BooleanNode_FunctionAssignment_TreeNode) value).getNodeLabel();
@@ -203,6 +222,7 @@ public class Interpreter {
     }
 
     public void showError(String fileName, int startIndex, int endIndex) {
+        errorCount += 1;
         String errorText = "Code error in file '" + fileName + "' at line " + Integer.toString(startIndex) + ", column " + Integer.toString(endIndex) + ".";
         DialogMaker.showErrorDialog("Parsing Error", errorText);
     }
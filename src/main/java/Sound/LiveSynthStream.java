@@ -0,0 +1,172 @@
+package Sound;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Patch;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Synthesizer;
+import java.io.Closeable;
+
+/**
+ * Sends notes straight to the synthesiser's {@link Receiver} as they are computed, without sequencing them first, so
+ * that a score can start playing at once and play for as long as it lasts.
+ *
+ * Time steps are counted from when the stream is opened, and each step lasts a quarter note at the sequencer's tempo.
+ * If the synthesiser can report its position, each message is sent with the time at which it should sound, and the
+ * synthesiser plays it at that time, so the notes of a step can be sent a little ahead of it. Otherwise each message is
+ * played as soon as it is sent, and the notes of a step must be sent when it is reached.
+ */
+public class LiveSynthStream implements Closeable {
+
+    //How long after the stream is opened the first time step is played, in microseconds
+    private static final long START_DELAY = 50000;
+
+    //How far ahead of the time they sound notes can be sent, if the synthesiser can schedule them, in microseconds
+    private static final long LOOKAHEAD = 200000;
+
+    //The length of each time step, in microseconds
+    static final long STEP_LENGTH = 60000000L / SoundMaker.TEMPO;
+
+    private final SoundMaker soundMaker;
+
+    private final Synthesizer synth;
+
+    private final Receiver receiver;
+
+    //Can messages be sent with the time at which they should sound?
+    private final boolean timestamped;
+
+    //The time of time step 0, on the synthesiser's clock if timestamped, otherwise on System.nanoTime() in microseconds
+    private final long startTime;
+
+    //The latest time at which a message has been sent to sound
+    private long lastTime;
+
+    //Which channels have been used, so their notes can be stopped when the stream is closed
+    private final boolean[] usedChannels = new boolean[16];
+
+    private final ShortMessage message = new ShortMessage();
+
+    /**
+     * @param soundMaker The SoundMaker which assigns each instrument its channel
+     * @param synth      The open synthesiser to send the notes to
+     * @throws MidiUnavailableException If the synthesiser's receiver is unavailable
+     */
+    LiveSynthStream(SoundMaker soundMaker, Synthesizer synth) throws MidiUnavailableException {
+        this.soundMaker = soundMaker;
+        this.synth = synth;
+        this.receiver = synth.getReceiver();
+        this.timestamped = synth.getMicrosecondPosition() >= 0;
+        this.startTime = getTime() + START_DELAY;
+        this.lastTime = startTime;
+    }
+
+    /**
+     * Begin a new track, selecting the given instrument for it at once.
+     *
+     * @param instrumentIndex The instrument Sound to use for the track's notes, or null for percussion. Uses standard
+     *                        Java MIDI indexing.
+     * @return The MIDI channel on which the track's notes should be sent
+     * @throws InvalidMidiDataException If no more channels can be assigned
+     */
+    public int startTrack(Integer instrumentIndex) throws InvalidMidiDataException {
+        int midiChannel = soundMaker.assignChannel(instrumentIndex);
+        usedChannels[midiChannel] = true;
+        if (instrumentIndex != null) {
+            Patch patch = SoundMaker.getInstrumentPatch(instrumentIndex);
+            message.setMessage(ShortMessage.PROGRAM_CHANGE, midiChannel, patch.getProgram(), patch.getBank());
+            receiver.send(message, -1);
+        }
+        return midiChannel;
+    }
+
+    /**
+     * @param midiChannel The channel returned by {@link #startTrack(Integer)}
+     * @param startStep   The time step from which the notes are played. Each event's step is counted from here.
+     * @param events      The note ons and offs to send, in order
+     */
+    public void sendNoteEvents(int midiChannel, int startStep, NoteEvents events) throws InvalidMidiDataException {
+        for (int i = 0; i < events.size(); i++) {
+            int command = events.isNoteOn(i) ? ShortMessage.NOTE_ON : ShortMessage.NOTE_OFF;
+            message.setMessage(command, midiChannel, events.getNote(i), 93);
+            send(getStepTime(startStep + events.getStep(i)));
+        }
+    }
+
+    private void send(long time) {
+        lastTime = Math.max(lastTime, time);
+        receiver.send(message, timestamped ? time : -1);
+    }
+
+    /**
+     * @return The first time step whose notes have not yet had to be sent. Steps before it are either playing or
+     * about to, and any of their notes not yet sent will be late.
+     */
+    public int getDueStep() {
+        long lookahead = timestamped ? LOOKAHEAD : 0;
+        long elapsed = getTime() + lookahead - startTime;
+        if (elapsed < 0) {
+            return 0;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, elapsed / STEP_LENGTH + 1);
+    }
+
+    /**
+     * @param step A time step
+     * @return How long until the notes of the given time step must be sent, in microseconds. Negative if they are late.
+     */
+    public long getTimeUntilDue(int step) {
+        long lookahead = timestamped ? LOOKAHEAD : 0;
+        return getStepTime(step) - lookahead - getTime();
+    }
+
+    /**
+     * @return How long until every message sent so far has sounded, in microseconds
+     */
+    public long getTimeUntilSent() {
+        return lastTime - getTime();
+    }
+
+    private long getStepTime(int step) {
+        return startTime + step * STEP_LENGTH;
+    }
+
+    private long getTime() {
+        return timestamped ? synth.getMicrosecondPosition() : System.nanoTime() / 1000;
+    }
+
+    /**
+     * Stop every note on the channels used at once, so that nothing more is heard. Notes which have been sent to sound
+     * later can't be taken back, so the notes are also stopped at each later time step to which any have been sent, just
+     * after the notes sent for it start.
+     */
+    @Override
+    public void close() {
+        stopNotes(-1);
+        if (timestamped) {
+            long elapsed = getTime() - startTime;
+            int step = elapsed < 0 ? 0 : (int) Math.min(Integer.MAX_VALUE, elapsed / STEP_LENGTH + 1);
+            for (long time = getStepTime(step); time <= lastTime; time += STEP_LENGTH) {
+                stopNotes(time);
+            }
+        }
+    }
+
+    /**
+     * Send All Notes Off on every channel used, to sound at the given time, or -1 for at once
+     */
+    private void stopNotes(long time) {
+        for (int midiChannel = 0; midiChannel < usedChannels.length; midiChannel++) {
+            if (usedChannels[midiChannel]) {
+                try {
+                    message.setMessage(ShortMessage.CONTROL_CHANGE, midiChannel, 123, 0);
+                    receiver.send(message, time);
+                } catch (InvalidMidiDataException e) {
+                    e.printStackTrace();
+                    //This exception should never occur
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package Sound;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Patch;
+import javax.sound.midi.ShortMessage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a Standard MIDI File incrementally, as the notes are sequenced, so that a score of any length can be exported
+ * in a constant amount of memory. Unlike {@link MIDITimeline}, events cannot be added out of order: within each track,
+ * every event must be at or after the previous one.
+ *
+ * Each track is written as a chunk of its own. The length of the chunk isn't known until the track ends, so a
+ * placeholder is written, and patched through the file's channel when the track is ended. The number of tracks in the
+ * file header is patched in the same way when the stream is closed. Events are encoded into a small buffer, which is
+ * flushed to the file whenever it fills.
+ */
+public class MIDIFileStream implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final SoundMaker soundMaker;
+
+    private final FileChannel channel;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    //The position in the file of the header of the current track, or -1 when no track is being written
+    private long trackStart = -1;
+
+    private int trackCount = 0;
+
+    //The tick of the last event in the current track
+    private long currentTick;
+
+    //The status of the last message written in the current track, or -1
+    private int runningStatus;
+
+    /**
+     * @param soundMaker The SoundMaker which assigns each instrument its channel
+     * @param file       The file to write, which is replaced if it exists
+     * @throws IOException If the file could not be opened
+     */
+    MIDIFileStream(SoundMaker soundMaker, File file) throws IOException {
+        this.soundMaker = soundMaker;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        //The file type and track count are patched when the stream is closed
+        MIDITimeline.putHeader(buffer, 1, 0, SoundMaker.TICK_RESOLUTION);
+    }
+
+    /**
+     * End the current track (if any) and begin a new one, selecting the given instrument at its start.
+     *
+     * @param instrumentIndex The instrument Sound to use for the track's notes, or null for percussion. Uses standard
+     *                        Java MIDI indexing.
+     * @return The MIDI channel on which the track's notes should be written
+     * @throws InvalidMidiDataException If no more channels can be assigned
+     * @throws IOException              If the file could not be written
+     */
+    public int startTrack(Integer instrumentIndex) throws InvalidMidiDataException, IOException {
+        endTrack();
+        trackStart = channel.position() + buffer.position();
+        trackCount++;
+        //Leave room for the track header, which needs the track length
+        ensureRemaining(MIDITimeline.TRACK_HEADER_LENGTH);
+        buffer.position(buffer.position() + MIDITimeline.TRACK_HEADER_LENGTH);
+        currentTick = 0;
+        runningStatus = -1;
+
+        int midiChannel = soundMaker.assignChannel(instrumentIndex);
+        if (instrumentIndex != null) {
+            Patch patch = SoundMaker.getInstrumentPatch(instrumentIndex);
+            addShortMessage(0, ShortMessage.PROGRAM_CHANGE, midiChannel, patch.getProgram(), patch.getBank());
+        }
+        return midiChannel;
+    }
+
+    /**
+     * @param midiChannel The channel returned by {@link #startTrack(Integer)}
+     * @param note        The MIDI note index (pitch)
+     * @param step        The time step at which the note starts. Not before the last event in the track.
+     */
+    public void noteOn(int midiChannel, int note, int step) throws InvalidMidiDataException, IOException {
+        addShortMessage(SoundMaker.getTick(step), ShortMessage.NOTE_ON, midiChannel, note, 93);
+    }
+
+    /**
+     * @param midiChannel The channel returned by {@link #startTrack(Integer)}
+     * @param note        The MIDI note index (pitch)
+     * @param step        The time step at which the note stops. Not before the last event in the track.
+     */
+    public void noteOff(int midiChannel, int note, int step) throws InvalidMidiDataException, IOException {
+        addShortMessage(SoundMaker.getTick(step), ShortMessage.NOTE_OFF, midiChannel, note, 93);
+    }
+
+    /**
+     * @param midiChannel The channel returned by {@link #startTrack(Integer)}
+     * @param startStep   The time step from which the notes are played. Each event's step is counted from here.
+     * @param events      The note ons and offs to write, in order. Not before the last event in the track.
+     */
+    public void writeNoteEvents(int midiChannel, int startStep, NoteEvents events) throws InvalidMidiDataException, IOException {
+        for (int i = 0; i < events.size(); i++) {
+            int command = events.isNoteOn(i) ? ShortMessage.NOTE_ON : ShortMessage.NOTE_OFF;
+            addShortMessage(SoundMaker.getTick(startStep + events.getStep(i)), command, midiChannel, events.getNote(i), 93);
+        }
+    }
+
+    private void addShortMessage(long tick, int command, int midiChannel, int data1, int data2) throws InvalidMidiDataException, IOException {
+        if (trackStart < 0) {
+            throw new IllegalStateException("No track has been started.");
+        }
+        if (tick < currentTick) {
+            throw new InvalidMidiDataException("Events must be streamed in order. Tick: " + Long.toString(tick) + ", Previous tick: " + Long.toString(currentTick));
+        }
+        int packed = MIDITimeline.packShortMessage(command, midiChannel, data1, data2);
+        ensureRemaining(MIDITimeline.MAX_SHORT_MESSAGE_LENGTH);
+        runningStatus = MIDITimeline.putShortMessage(buffer, tick - currentTick, packed, runningStatus);
+        currentTick = tick;
+    }
+
+    /**
+     * End the current track, if one has been started, and patch the length in its header
+     *
+     * @throws IOException If the file could not be written, or the track is too long for a MIDI file
+     */
+    public void endTrack() throws IOException {
+        if (trackStart < 0) {
+            return;
+        }
+        ensureRemaining(MIDITimeline.END_OF_TRACK_LENGTH);
+        MIDITimeline.putEndOfTrack(buffer);
+        flush();
+        long length = channel.position() - trackStart - MIDITimeline.TRACK_HEADER_LENGTH;
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("The track is too long to be written to a MIDI file: " + Long.toString(length) + " bytes.");
+        }
+        ByteBuffer header = ByteBuffer.allocate(MIDITimeline.TRACK_HEADER_LENGTH);
+        MIDITimeline.putTrackHeader(header, 0, (int) length);
+        writeAt(header, trackStart);
+        trackStart = -1;
+    }
+
+    /**
+     * @return How many tracks have been started
+     */
+    public int getTrackCount() {
+        return trackCount;
+    }
+
+    /**
+     * End the current track, patch the file header, and close the file. A file of a single track is marked as MIDI
+     * file type 0, as {@link SoundMaker#writeSequence(File)} would write it.
+     *
+     * @throws IOException If the file could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            endTrack();
+            flush();
+            ByteBuffer header = ByteBuffer.allocate(MIDITimeline.HEADER_LENGTH);
+            MIDITimeline.putHeader(header, trackCount == 1 ? 0 : 1, trackCount, SoundMaker.TICK_RESOLUTION);
+            header.flip();
+            writeAt(header, 0);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void ensureRemaining(int required) throws IOException {
+        if (buffer.remaining() < required) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        MIDITimeline.writeFully(channel, buffer);
+        buffer.clear();
+    }
+
+    private void writeAt(ByteBuffer bytes, long position) throws IOException {
+        while (bytes.hasRemaining()) {
+            position += channel.write(bytes, position);
+        }
+    }
+}
@@ -2,23 +2,33 @@ package Sound;
 
 import GUI.VisualisationRoll;
 
-import javax.sound.midi.MetaEventListener;
-import javax.sound.midi.MetaMessage;
-import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * A Listener for MIDI MetaEvents triggered when the {@link SoundMaker} instance begins playback of the MIDI sequence.
+ * A Listener for the time steps reached when the {@link SoundMaker} instance begins playback of the MIDI sequence.
  * Used to trigger updates for the visualisation components of the GUI.
+ *
+ * The time steps arrive on the sequencer's thread, which only records the latest one. The GUI calls
+ * {@link #showLatestStep()} on the JavaFX thread once per frame, which moves the rolls to whatever step was recorded
+ * last, so the sequencer never waits on, or touches, the GUI, and however fast the tempo the rolls are moved at most
+ * once per frame. Nothing here needs the JavaFX toolkit, so a listener can be made for a session without a GUI.
  */
-public class MIDIMetaListener implements MetaEventListener {
-    VisualisationRoll currentVisRoll;
+public class MIDIMetaListener implements TransportClock.TransportListener {
+    private static final int NO_STEP = -1;
+
+    //Only used on the JavaFX thread
     HashMap<String, VisualisationRoll> visualisationRollHashMap = new HashMap<>();
 
+    //The latest time step reached, or NO_STEP if it has already been shown. Written by the sequencer's thread.
+    private final AtomicInteger latestStep = new AtomicInteger(NO_STEP);
+    private volatile TransportClock clock;
+
     /**
      * Associate the given network (identified by name) with the given {@link VisualisationRoll} instance.
-     * When a meta message is received, it contains the name of the network responsible the beat
-     * on which the meta message was sent, along with the beat number. See {@link SoundMaker#sequenceNodeData(ArrayList, int, Integer, String, Boolean)}
+     * At each time step, the roll is moved to the network's beat at that step, if the network is being played.
+     * See {@link SoundMaker#sequenceBeats(String, int, int)}
      * @param networkName
      * @param visualisationRoll
      */
@@ -27,32 +37,36 @@ public class MIDIMetaListener implements MetaEventListener {
     }
 
     /**
-     * What to do when a MetaMessage is received.
-     *
-     * Extracts the data, assuming that the message contained the name of a boolean network and a positive integer
-     * as a comma-separated string. This data is the name of the network associated with the current beat
-     * along with the number of that beat in the sequence.
-     * @param meta The received MetaMessage
+     * What to do when a time step is reached. Called on the sequencer's thread, so only records the step, replacing
+     * any step not yet shown.
+     * @param clock The clock giving each network's beat
+     * @param step  The time step reached
      */
     @Override
-    public void meta(MetaMessage meta) {
-
-        String[] data = (new String(meta.getData())).split(",");
-
-        String netName = data[0];
-        Integer tickValue = Integer.parseInt(data[1]);
-
-        currentVisRoll = visualisationRollHashMap.get(netName);
-        currentVisRoll.tick(tickValue);
-
-
-        System.out.println(tickValue);
-
+    public void transportStep(TransportClock clock, int step) {
+        this.clock = clock;
+        latestStep.set(step);
+    }
 
+    /**
+     * Move the roll of each network which is being played at the latest time step to the number of that network's beat,
+     * if a step has been reached since this was last called. Must be called on the JavaFX thread, e.g. once per frame.
+     */
+    public void showLatestStep() {
+        int step = latestStep.getAndSet(NO_STEP);
+        if (step == NO_STEP) {
+            return;
+        }
+        for (Map.Entry<String, VisualisationRoll> entry : visualisationRollHashMap.entrySet()) {
+            int position = clock.getNetworkPosition(entry.getKey(), step);
+            if (position >= 0) {
+                entry.getValue().tick(position);
+            }
+        }
     }
 
     public void clear() {
-        currentVisRoll = null;
+        latestStep.set(NO_STEP);
         visualisationRollHashMap.clear();
     }
 }
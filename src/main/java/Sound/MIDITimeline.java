@@ -0,0 +1,386 @@
+package Sound;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * The sequenced MIDI events of a {@link SoundMaker}, held as primitive arrays rather than as javax.sound.midi objects.
+ *
+ * Each track is a struct of arrays: the tick of each event, and the event itself packed into an int. Events are appended
+ * in any order, in constant time, and are only sorted (stably, so events at the same tick keep the order in which they
+ * were added, as in a {@link Track}) when the timeline is written out. The timeline can be written straight to a
+ * Standard MIDI File through a channel, or converted to a {@link Sequence} when it is to be played.
+ */
+public class MIDITimeline {
+
+    //A packed event with this bit set is a MetaMessage. The rest of the bits are its index in the meta arrays.
+    private static final int META_FLAG = 0x80000000;
+
+    private static final int META_END_OF_TRACK = 0x2F;
+
+    private static final int MThd_MAGIC = 0x4d546864;
+    private static final int MTrk_MAGIC = 0x4d54726b;
+
+    //The length of the file header, and of each track chunk's header
+    static final int HEADER_LENGTH = 14;
+    static final int TRACK_HEADER_LENGTH = 8;
+
+    //The most bytes taken by a channel message, with its delta time
+    static final int MAX_SHORT_MESSAGE_LENGTH = 13;
+    //The bytes taken by the end of track, with its delta time of 0
+    static final int END_OF_TRACK_LENGTH = 4;
+
+    //The pulses per quarter note
+    private final int resolution;
+
+    //For each track, the tick of each event, in the order they were added
+    private long[][] ticks = new long[4][];
+
+    //For each track, each event: a ShortMessage packed as status | data1 << 8 | data2 << 16, or META_FLAG | meta index
+    private int[][] events = new int[4][];
+
+    //How many events have been added to each track
+    private int[] eventCounts = new int[4];
+
+    private int trackCount = 0;
+
+    //The type and data of each MetaMessage, in any track
+    private byte[] metaTypes = new byte[16];
+    private byte[][] metaData = new byte[16][];
+    private int metaCount = 0;
+
+    /**
+     * @param resolution The number of ticks per quarter note
+     */
+    public MIDITimeline(int resolution) {
+        this.resolution = resolution;
+    }
+
+    /**
+     * @return The index of a new, empty track
+     */
+    public int createTrack() {
+        if (trackCount == ticks.length) {
+            ticks = Arrays.copyOf(ticks, trackCount * 2);
+            events = Arrays.copyOf(events, trackCount * 2);
+            eventCounts = Arrays.copyOf(eventCounts, trackCount * 2);
+        }
+        ticks[trackCount] = new long[16];
+        events[trackCount] = new int[16];
+        eventCounts[trackCount] = 0;
+        return trackCount++;
+    }
+
+    /**
+     * Add a channel message to a track, checked as {@link ShortMessage#setMessage(int, int, int, int)} would check it.
+     *
+     * @param track   The index of the track
+     * @param tick    The tick at which the message is sent
+     * @param command The command, e.g. {@link ShortMessage#NOTE_ON}
+     * @param channel The channel, 0-15
+     * @param data1   The first data byte, if the command has one
+     * @param data2   The second data byte, if the command has two
+     * @throws InvalidMidiDataException If any of the values is out of range
+     */
+    public void addShortMessage(int track, long tick, int command, int channel, int data1, int data2) throws InvalidMidiDataException {
+        addEvent(track, tick, packShortMessage(command, channel, data1, data2));
+    }
+
+    /**
+     * Check a channel message as {@link ShortMessage#setMessage(int, int, int, int)} would check it, and pack it into
+     * an int as status | data1 &lt;&lt; 8 | data2 &lt;&lt; 16.
+     *
+     * @throws InvalidMidiDataException If any of the values is out of range
+     */
+    static int packShortMessage(int command, int channel, int data1, int data2) throws InvalidMidiDataException {
+        if (command < 0x80 || command >= 0xF0 || (command & 0x0F) != 0) {
+            throw new InvalidMidiDataException("Invalid command for a channel message: " + Integer.toHexString(command));
+        }
+        if ((channel & 0xFFFFFFF0) != 0) {
+            throw new InvalidMidiDataException("Channel out of range: " + Integer.toString(channel));
+        }
+        int dataLength = getDataLength(command);
+        if (dataLength > 0 && (data1 < 0 || data1 > 127)) {
+            throw new InvalidMidiDataException("Data byte 1 out of range: " + Integer.toString(data1));
+        }
+        if (dataLength > 1 && (data2 < 0 || data2 > 127)) {
+            throw new InvalidMidiDataException("Data byte 2 out of range: " + Integer.toString(data2));
+        }
+        return (command | channel) | ((dataLength > 0 ? data1 : 0) << 8) | ((dataLength > 1 ? data2 : 0) << 16);
+    }
+
+    /**
+     * Add a MetaMessage to a track
+     *
+     * @param track The index of the track
+     * @param tick  The tick at which the message is sent
+     * @param type  The type of the MetaMessage
+     * @param data  The data of the MetaMessage, which must not be modified afterwards
+     */
+    public void addMetaMessage(int track, long tick, int type, byte[] data) {
+        if (metaCount == metaTypes.length) {
+            metaTypes = Arrays.copyOf(metaTypes, metaCount * 2);
+            metaData = Arrays.copyOf(metaData, metaCount * 2);
+        }
+        metaTypes[metaCount] = (byte) type;
+        metaData[metaCount] = data;
+        addEvent(track, tick, META_FLAG | metaCount);
+        metaCount++;
+    }
+
+    private void addEvent(int track, long tick, int packed) {
+        int count = eventCounts[track];
+        if (count == ticks[track].length) {
+            ticks[track] = Arrays.copyOf(ticks[track], count * 2);
+            events[track] = Arrays.copyOf(events[track], count * 2);
+        }
+        ticks[track][count] = tick;
+        events[track][count] = packed;
+        eventCounts[track] = count + 1;
+    }
+
+    public int getTrackCount() {
+        return trackCount;
+    }
+
+    /**
+     * Remove all the tracks and events
+     */
+    public void clear() {
+        for (int i = 0; i < trackCount; i++) {
+            ticks[i] = null;
+            events[i] = null;
+        }
+        Arrays.fill(metaData, 0, metaCount, null);
+        trackCount = 0;
+        metaCount = 0;
+    }
+
+    /**
+     * Create a {@link Sequence} holding the same tracks and events as this timeline, e.g. for a {@link javax.sound.midi.Sequencer}
+     * to play. The events are added to each track in order, so each is appended without searching the track.
+     *
+     * @param includeMeta Should the MetaMessages be included?
+     * @return A new sequence
+     * @throws InvalidMidiDataException This should never occur, as the events were checked when they were added
+     */
+    public Sequence toSequence(boolean includeMeta) throws InvalidMidiDataException {
+        Sequence sequence = new Sequence(Sequence.PPQ, resolution);
+        for (int t = 0; t < trackCount; t++) {
+            Track track = sequence.createTrack();
+            long[] trackTicks = ticks[t];
+            int[] trackEvents = events[t];
+            for (int i : getSortedOrder(t)) {
+                int packed = trackEvents[i];
+                if ((packed & META_FLAG) != 0) {
+                    if (includeMeta) {
+                        int meta = packed & ~META_FLAG;
+                        byte[] data = metaData[meta];
+                        track.add(new MidiEvent(new MetaMessage(metaTypes[meta], data, data.length), trackTicks[i]));
+                    }
+                } else {
+                    ShortMessage message = new ShortMessage();
+                    message.setMessage(packed & 0xF0, packed & 0x0F, (packed >>> 8) & 0x7F, (packed >>> 16) & 0x7F);
+                    track.add(new MidiEvent(message, trackTicks[i]));
+                }
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * @return The MIDI file type which {@link #write(WritableByteChannel, boolean)} will write: 0 for a single track,
+     * otherwise 1. The same as the first type given by {@link javax.sound.midi.MidiSystem#getMidiFileTypes(Sequence)}.
+     */
+    public int getFileType() {
+        return trackCount == 1 ? 0 : 1;
+    }
+
+    /**
+     * Write the timeline as a Standard MIDI File. Each track is encoded into a buffer (with running status, as the
+     * javax.sound.midi file writer does) and written to the channel with its header, so only one track's bytes are
+     * held in memory at a time.
+     *
+     * @param channel     The channel to write to. It is not closed.
+     * @param includeMeta Should the MetaMessages be included? The end of track is always written.
+     * @throws IOException If the channel could not be written
+     */
+    public void write(WritableByteChannel channel, boolean includeMeta) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        putHeader(header, getFileType(), trackCount, resolution);
+        header.flip();
+        writeFully(channel, header);
+
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        for (int t = 0; t < trackCount; t++) {
+            buffer.clear();
+            //Leave room for the track header, which needs the track length
+            buffer.position(TRACK_HEADER_LENGTH);
+            long[] trackTicks = ticks[t];
+            int[] trackEvents = events[t];
+            long currentTick = 0;
+            int runningStatus = -1;
+            for (int i : getSortedOrder(t)) {
+                int packed = trackEvents[i];
+                if ((packed & META_FLAG) != 0) {
+                    if (!includeMeta) {
+                        continue;
+                    }
+                    int meta = packed & ~META_FLAG;
+                    byte[] data = metaData[meta];
+                    buffer = ensureRemaining(buffer, 20 + data.length);
+                    putVariableLength(buffer, trackTicks[i] - currentTick);
+                    buffer.put((byte) MetaMessage.META).put(metaTypes[meta]);
+                    putVariableLength(buffer, data.length);
+                    buffer.put(data);
+                    runningStatus = -1;
+                } else {
+                    buffer = ensureRemaining(buffer, MAX_SHORT_MESSAGE_LENGTH);
+                    runningStatus = putShortMessage(buffer, trackTicks[i] - currentTick, packed, runningStatus);
+                }
+                currentTick = trackTicks[i];
+            }
+            //The end of track is at the last event written
+            buffer = ensureRemaining(buffer, END_OF_TRACK_LENGTH);
+            putEndOfTrack(buffer);
+
+            putTrackHeader(buffer, 0, buffer.position() - TRACK_HEADER_LENGTH);
+            buffer.flip();
+            writeFully(channel, buffer);
+        }
+    }
+
+    /**
+     * Put the header of a Standard MIDI File
+     */
+    static void putHeader(ByteBuffer buffer, int fileType, int trackCount, int resolution) {
+        buffer.putInt(MThd_MAGIC).putInt(6).putShort((short) fileType).putShort((short) trackCount).putShort((short) resolution);
+    }
+
+    /**
+     * Put the header of a track chunk at the given index of the buffer
+     *
+     * @param length The number of bytes in the track chunk, after its header
+     */
+    static void putTrackHeader(ByteBuffer buffer, int index, int length) {
+        buffer.putInt(index, MTrk_MAGIC);
+        buffer.putInt(index + 4, length);
+    }
+
+    /**
+     * Put a packed channel message, and its delta time, using running status: the status byte is left out when it is
+     * the same as the previous message's.
+     *
+     * @param deltaTick     The number of ticks since the previous event in the track
+     * @param packed        A message packed by {@link #packShortMessage(int, int, int, int)}
+     * @param runningStatus The status of the previous message in the track, or -1 if there is none
+     * @return The running status after this message
+     */
+    static int putShortMessage(ByteBuffer buffer, long deltaTick, int packed, int runningStatus) {
+        int status = packed & 0xFF;
+        putVariableLength(buffer, deltaTick);
+        if (status != runningStatus) {
+            buffer.put((byte) status);
+        }
+        int dataLength = getDataLength(status & 0xF0);
+        if (dataLength > 0) {
+            buffer.put((byte) (packed >>> 8));
+        }
+        if (dataLength > 1) {
+            buffer.put((byte) (packed >>> 16));
+        }
+        return status;
+    }
+
+    /**
+     * Put the end of track, at the same tick as the previous event in the track
+     */
+    static void putEndOfTrack(ByteBuffer buffer) {
+        buffer.put((byte) 0).put((byte) MetaMessage.META).put((byte) META_END_OF_TRACK).put((byte) 0);
+    }
+
+    /**
+     * @return The indices of the events of the given track, ordered by tick. Events at the same tick keep the order in
+     * which they were added.
+     */
+    private int[] getSortedOrder(int track) {
+        int count = eventCounts[track];
+        long[] trackTicks = ticks[track];
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        //Events are added almost in order (only note offs come late), so a bottom-up merge sort which skips runs that
+        //are already in order does little work
+        int[] scratch = new int[count];
+        for (int width = 1; width < count; width *= 2) {
+            for (int low = 0; low < count - width; low += 2 * width) {
+                int middle = low + width;
+                int high = Math.min(low + 2 * width, count);
+                if (trackTicks[order[middle - 1]] <= trackTicks[order[middle]]) {
+                    continue;
+                }
+                System.arraycopy(order, low, scratch, low, high - low);
+                int left = low;
+                int right = middle;
+                for (int k = low; k < high; k++) {
+                    if (left < middle && (right >= high || trackTicks[scratch[left]] <= trackTicks[scratch[right]])) {
+                        order[k] = scratch[left++];
+                    } else {
+                        order[k] = scratch[right++];
+                    }
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * @return The number of data bytes which follow the status byte of a channel message with the given command
+     */
+    private static int getDataLength(int command) {
+        switch (command) {
+            case ShortMessage.PROGRAM_CHANGE:
+            case ShortMessage.CHANNEL_PRESSURE:
+                return 1;
+            default:
+                return 2;
+        }
+    }
+
+    private static ByteBuffer ensureRemaining(ByteBuffer buffer, int required) {
+        if (buffer.remaining() >= required) {
+            return buffer;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + required));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    private static void putVariableLength(ByteBuffer buffer, long value) {
+        int shift = 63;
+        while (shift > 0 && (value & (0x7FL << shift)) == 0) {
+            shift -= 7;
+        }
+        while (shift > 0) {
+            buffer.put((byte) (((value >>> shift) & 0x7F) | 0x80));
+            shift -= 7;
+        }
+        buffer.put((byte) (value & 0x7F));
+    }
+
+    static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
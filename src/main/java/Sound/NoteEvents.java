@@ -0,0 +1,78 @@
+package Sound;
+
+import java.util.Arrays;
+
+/**
+ * A buffer of note on and note off events, in the order they occur, each packed into a single long. Used to pass the
+ * notes of a network from the note extraction to the {@link SoundMaker} or a {@link MIDIFileStream} without an object
+ * per note. The buffer can be cleared and refilled, so a long run can be passed through it a piece at a time.
+ */
+public class NoteEvents {
+
+    //Each event is packed as (time step << 32) | (note << 1) | (1 for a note on, 0 for a note off)
+    private long[] events = new long[64];
+
+    private int size = 0;
+
+    /**
+     * @param step The time step at which the note starts
+     * @param note The MIDI note index (pitch)
+     */
+    public void addNoteOn(int step, int note) {
+        add(((long) step << 32) | (note << 1) | 1L);
+    }
+
+    /**
+     * @param step The time step at which the note stops
+     * @param note The MIDI note index (pitch)
+     */
+    public void addNoteOff(int step, int note) {
+        add(((long) step << 32) | (note << 1));
+    }
+
+    private void add(long event) {
+        if (size == events.length) {
+            events = Arrays.copyOf(events, size * 2);
+        }
+        events[size] = event;
+        size++;
+    }
+
+    /**
+     * @return The number of events in the buffer
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index The position of an event in the buffer
+     * @return The time step of the event
+     */
+    public int getStep(int index) {
+        return (int) (events[index] >>> 32);
+    }
+
+    /**
+     * @param index The position of an event in the buffer
+     * @return The MIDI note index (pitch) of the event
+     */
+    public int getNote(int index) {
+        return ((int) events[index]) >>> 1;
+    }
+
+    /**
+     * @param index The position of an event in the buffer
+     * @return true for a note on, false for a note off
+     */
+    public boolean isNoteOn(int index) {
+        return (events[index] & 1L) != 0;
+    }
+
+    /**
+     * Remove all the events from the buffer
+     */
+    public void clear() {
+        size = 0;
+    }
+}
@@ -5,7 +5,10 @@ import Parser.DialogMaker;
 import javax.sound.midi.*;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
 
 import static javax.sound.midi.MidiSystem.getSynthesizer;
@@ -17,78 +20,79 @@ import static javax.sound.midi.MidiSystem.getSynthesizer;
 public class SoundMaker {
     //How many pulses happen for every quarter note in the sequencer.
     //A "Time Step" as used below means one quarter note.
-    private static final int TICK_RESOLUTION = 4;
+    static final int TICK_RESOLUTION = 4;
 
     //Currently we have a fixed, non-user-defined tempo and metre.
-    private static final int TEMPO = 180;
+    static final int TEMPO = 180;
 
-    private static Sequencer sequencer;
-    private static Sequence sequence;
-    private static Synthesizer synth;
+    //Only opened when the sequence is played, so a SoundMaker used just for sequencing or export needs no MIDI devices
+    private Sequencer sequencer;
+    private Synthesizer synth;
+
+    //All the sequenced events. Exported directly, without creating any javax.sound.midi objects.
+    private MIDITimeline timeline = new MIDITimeline(TICK_RESOLUTION);
+
+    //The timeline as a Sequence for the sequencer to play. Only created when played, and discarded when more is sequenced.
+    private Sequence sequence;
 
     private ShortMessage onMessage = new ShortMessage();
     private ShortMessage offMessage = new ShortMessage();
 
-    //Listens for when MetaEvents are encountered during sequence playback
-    private MIDIMetaListener midiMetaListener;
+    //The patches of the instruments in the default soundbank, in instrument index order. Loaded when first needed.
+    private static Patch[] defaultInstrumentPatches;
+
+    //Should play() start the sequencer? Disabled when the sequence is only being rendered to a file.
+    private boolean playbackEnabled = true;
+
+    //Sends the time step reached during playback to the visualisation
+    private final TransportClock transportClock = new TransportClock();
 
     //Used in bypassing the Sequencer for instant playback of a MIDI note
     private Receiver synthRcvr;
 
     //The current MIDI channel to use. Each instrument has a different channel, and 9 is reserved for percussion.
-    private static Integer channelCount = 0;
+    private Integer channelCount = 0;
     //Associates an instrument index with a channel number.
     private HashMap<Integer, Integer> instrumentChannelMap = new HashMap<>();
-    //Associates an network name with a Track.
-    private HashMap<String, Track> netTrackMap = new HashMap<>();
+    //Associates an network name with the index of its track in the timeline.
+    private HashMap<String, Integer> netTrackMap = new HashMap<>();
 
-    //How many steps have been counted in total for each net. Used for scheduling MetaEvents.
-    private HashMap<String, Integer> tickCountHashMap = new HashMap<>();
 
 
     public SoundMaker(MIDIMetaListener midiMetaListener) {
-        this.midiMetaListener = midiMetaListener;
-        try {
-            sequencer = MidiSystem.getSequencer();
-            if (sequence == null) {
-                sequence = new Sequence(Sequence.PPQ, TICK_RESOLUTION);
-            }
-            if (!sequencer.isOpen()) {
-                sequencer.open();
-            }
-
-        } catch (MidiUnavailableException e) {
-            e.printStackTrace();
-            DialogMaker.showMidiUnavailableDialog();
-        } catch (InvalidMidiDataException e) {
-            e.printStackTrace();
-            //This exception will never occur
-        }
-
+        transportClock.addListener(midiMetaListener);
     }
 
     /**
-     * Load the given data into the sequencer, ready to be streamed to the synthesiser during playback.
+     * Prepare the track of the given network to receive notes from
+     * {@link #sequenceNoteEvents(String, int, int, NoteEvents)}.
+     * The network's instrument is assigned a channel, and the instrument is selected on that channel.
      *
-     * @param data            The series of MIDI note indices (pitches) to be played. A Null value is interpreted as silence - no note.
-     *                        Two or more identical indices in direct succession will result in the note being sustained for the length
-     *                        of the series of identical indices.
-     * @param startStep       The time step from which the given notes will be played. The data is sequenced starting at that time location in the sequence.
-     * @param instrumentIndex The instrument Sound to use for playing these notes. Uses standard Java MIDI indexing.
-     * @param networkName     The name of the network from which the input data is derived. Used to trigger visualisations registered to the same network name.
-     * @param sendMeta        Should MetaMessages be sent at every time step during playback of the sequence? They are used to trigger visualisation updates.
-     * @throws InvalidMidiDataException
+     * @param networkName     The name of the network to be sequenced
+     * @param instrumentIndex The instrument Sound to use for playing the network's notes. Uses standard Java MIDI indexing.
+     * @return The MIDI channel on which the network's notes should be sequenced
+     * @throws InvalidMidiDataException If no more channels can be assigned
      */
-    public void sequenceNodeData(ArrayList<Integer> data, int startStep, Integer instrumentIndex, String networkName, Boolean sendMeta) throws InvalidMidiDataException {
+    public int startNetworkSequence(String networkName, Integer instrumentIndex) throws InvalidMidiDataException {
         //Every network has its own track, used for all nodes
-        Track newTrack;
-        if (!netTrackMap.containsKey(networkName)) {
-            newTrack = sequence.createTrack();
-            netTrackMap.put(networkName, newTrack);
-        } else {
-            newTrack = netTrackMap.get(networkName);
+        int track = getNetworkTrack(networkName);
+        int channel = assignChannel(instrumentIndex);
+
+        if (instrumentIndex != null) {
+            Patch patch = getInstrumentPatch(instrumentIndex);
+            timeline.addShortMessage(track, 0, ShortMessage.PROGRAM_CHANGE, channel, patch.getProgram(), patch.getBank());
         }
+        return channel;
+    }
 
+    /**
+     * Find the channel assigned to an instrument, assigning it the next free channel if it hasn't been used before.
+     *
+     * @param instrumentIndex The instrument Sound. Uses standard Java MIDI indexing. Null for percussion.
+     * @return The MIDI channel on which the instrument's notes should be sequenced
+     * @throws InvalidMidiDataException If no more channels can be assigned
+     */
+    int assignChannel(Integer instrumentIndex) throws InvalidMidiDataException {
         /*
          * INSTRUMENTS and CHANNELS
          */
@@ -112,81 +116,98 @@ public class SoundMaker {
                 }
             }
         }
+        return channel;
+    }
 
-        if (synth == null) {
+    /**
+     * Find the patch of an instrument in the default soundbank. The soundbank is loaded once and shared by every
+     * SoundMaker. If no synthesiser is available, the instrument index is used as the General MIDI program number.
+     *
+     * @param instrumentIndex The instrument Sound. Uses standard Java MIDI indexing.
+     * @return The bank and program to select for the instrument
+     */
+    static synchronized Patch getInstrumentPatch(int instrumentIndex) {
+        if (defaultInstrumentPatches == null) {
             try {
-                synth = getSynthesizer();
-            } catch (MidiUnavailableException e) {
+                Instrument[] instr = getSynthesizer().getDefaultSoundbank().getInstruments();
+                defaultInstrumentPatches = new Patch[instr.length];
+                for (int i = 0; i < instr.length; i++) {
+                    defaultInstrumentPatches[i] = instr[i].getPatch();
+                }
+            } catch (MidiUnavailableException | RuntimeException e) {
                 e.printStackTrace();
                 DialogMaker.showMidiUnavailableDialog();
+                defaultInstrumentPatches = new Patch[0];
             }
         }
-
-        Instrument[] instr = synth.getDefaultSoundbank().getInstruments();
-
-        if (instrumentIndex != null) {
-            ShortMessage msg = new ShortMessage();
-            msg.setMessage(ShortMessage.PROGRAM_CHANGE, channel, instr[instrumentIndex].getPatch().getProgram(), instr[instrumentIndex].getPatch().getBank());
-            newTrack.add(new MidiEvent(msg, 0));
+        if (instrumentIndex < defaultInstrumentPatches.length) {
+            return defaultInstrumentPatches[instrumentIndex];
         }
+        return new Patch(0, instrumentIndex);
+    }
 
-        /*
-         * SEQUENCING
-         */
-        //The exact number of ticks to after t=0 at which the current sequence data should start
-        int offset = startStep * TICK_RESOLUTION;
-
-        //An arbitrary delay before playback, stops lagging happening during the first few notes.
-        int delay = 16;
+    /**
+     * Record that the given network is played at each of the given time steps, so that the visualisation can follow
+     * it during playback. See {@link TransportClock}.
+     *
+     * @param networkName The name of the network whose beats are sequenced
+     * @param startStep   The time step of the first beat
+     * @param count       How many beats to sequence
+     * @throws InvalidMidiDataException
+     */
+    public void sequenceBeats(String networkName, int startStep, int count) throws InvalidMidiDataException {
+        getNetworkTrack(networkName);
+        transportClock.addBeats(networkName, startStep, count);
+    }
 
-        //Keep track of the number of time steps for which each network has been played in total.
-        //Includes repeated playback, or playing from different start states.
-        if (!tickCountHashMap.containsKey(networkName)) {
-            tickCountHashMap.put(networkName, 0);
+    /**
+     * Add the given notes to the track of the given network.
+     *
+     * @param networkName The name of the network playing the notes
+     * @param channel     The channel returned by {@link #startNetworkSequence(String, Integer)} for the network
+     * @param startStep   The time step from which the notes are played. Each event's step is counted from here.
+     * @param events      The note ons and offs to sequence
+     * @throws InvalidMidiDataException
+     */
+    public void sequenceNoteEvents(String networkName, int channel, int startStep, NoteEvents events) throws InvalidMidiDataException {
+        int track = getNetworkTrack(networkName);
+        for (int i = 0; i < events.size(); i++) {
+            int command = events.isNoteOn(i) ? ShortMessage.NOTE_ON : ShortMessage.NOTE_OFF;
+            timeline.addShortMessage(track, getTick(startStep + events.getStep(i)), command, channel, events.getNote(i), 93);
         }
+    }
 
-        if (sendMeta) {
-            //Set up a MetaMessage to send information to the visualiser about which notes are being played
-            for (int i = 0; i < data.size() - 1; i++) {
-                String message = networkName + "," + Integer.toString(tickCountHashMap.get(networkName));
-                MetaMessage stringMessage = new MetaMessage(1, message.getBytes(), message.getBytes().length);
-                int tick = offset + delay + i * TICK_RESOLUTION;
-                MidiEvent meta = new MidiEvent(stringMessage, tick);
-                newTrack.add(meta);
-                tickCountHashMap.put(networkName, tickCountHashMap.get(networkName) + 1);
-            }
+    /**
+     * @return The index in the timeline of the given network's track, which is created if need be. Since the track is
+     * about to be added to, the Sequence made from the timeline for playback is discarded.
+     */
+    private int getNetworkTrack(String networkName) {
+        sequence = null;
+        Integer track = netTrackMap.get(networkName);
+        if (track == null) {
+            track = timeline.createTrack();
+            netTrackMap.put(networkName, track);
         }
+        return track;
+    }
 
-        //Sequence the notes!
-        for (int start = 0; start < data.size() - 1; start++) {
-            Integer note = data.get(start);
-            if (note != null) {
-                ShortMessage noteOn = new ShortMessage();
-                noteOn.setMessage(ShortMessage.NOTE_ON, channel, note, 93);
-                ShortMessage noteOff = new ShortMessage();
-                noteOff.setMessage(ShortMessage.NOTE_OFF, channel, note, 93);
-
-                MidiEvent noteOnEvent = new MidiEvent(noteOn, offset + delay + start * TICK_RESOLUTION);
-
-                for (int end = start; end < data.size(); end++) {
-                    //Counting how long each note is sustained for.
-                    if (data.get(end) == null || end == data.size() - 1) {
-                        MidiEvent noteOffEvent = new MidiEvent(noteOff, offset + delay + (end) * TICK_RESOLUTION);
-                        newTrack.add(noteOnEvent);
-                        newTrack.add(noteOffEvent);
-                        start = end;
-                        break;
-                    }
-
-                }
-            }
-        }
+    /**
+     * @param step A time step
+     * @return The tick in the sequence at which the given time step is played
+     */
+    static long getTick(int step) {
+        //An arbitrary delay before playback, stops lagging happening during the first few notes.
+        int delay = 16;
+        return (long) step * TICK_RESOLUTION + delay;
     }
 
     /**
      * Have the sequence object stream its contents to the synthesiser, thereby playing the sequenced music.
      */
     public void play() {
+        if (!playbackEnabled) {
+            return;
+        }
         try {
             if (synth == null) {
                 synth = getSynthesizer();
@@ -194,13 +215,20 @@ public class SoundMaker {
             if (!(synth.isOpen())) {
                 synth.open();
             }
+            if (sequencer == null) {
+                sequencer = MidiSystem.getSequencer();
+            }
             if (!sequencer.isOpen()) {
                 sequencer.open();
             }
-            if (sequencer.getSequence() == null) {
+            if (sequence == null || sequencer.getSequence() != sequence) {
+                if (sequence == null) {
+                    sequence = timeline.toSequence(true);
+                    transportClock.addClockTrack(sequence);
+                }
                 sequencer.setSequence(sequence);
             }
-            sequencer.addMetaEventListener(midiMetaListener);
+            sequencer.addMetaEventListener(transportClock);
             sequencer.setTempoInBPM(TEMPO);
             sequencer.start();
         } catch (MidiUnavailableException e) {
@@ -212,33 +240,92 @@ public class SoundMaker {
     }
 
     public void saveSequence(File file) {
-        //We create a copy of the sequence which doesn't contain all the MetaMessage tags, and export it.
-        if (sequencer != null) {
-            try {
-                Sequence seq_noMeta = new Sequence(Sequence.PPQ, TICK_RESOLUTION);
-                for (Track t : sequence.getTracks()) {
-                    Track newTrack = seq_noMeta.createTrack();
-                    for (int i = 0; i < t.size(); i++) {
-                        MidiEvent e = t.get(i);
-                        if (e.getMessage().getStatus() != MetaMessage.META) {
-                            newTrack.add(e);
-                        }
-                    }
-                }
-                int[] midiFileTypes = MidiSystem.getMidiFileTypes(seq_noMeta);
-                if (midiFileTypes.length > 0) {
-                    try {
-                        MidiSystem.write(seq_noMeta, midiFileTypes[0], file);
-                    } catch (IOException e) {
-                        DialogMaker.showErrorDialog("MIDI Export Error", "Could not export the MIDI file.");
-                        e.printStackTrace();
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();//This should never occur.
-            }
+        if (isEmpty()) {
+            return;
+        }
+        try {
+            writeSequence(file);
+        } catch (IOException e) {
+            DialogMaker.showErrorDialog("MIDI Export Error", "Could not export the MIDI file.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Export the sequence as a standard MIDI file, without the MetaMessages used for visualisation. The file is
+     * written directly from the timeline, through a channel.
+     *
+     * @param file The file to write
+     * @throws IOException If the file could not be written, or there is no sequenced track to write
+     */
+    public void writeSequence(File file) throws IOException {
+        checkNotEmpty();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            timeline.write(channel, false);
+        }
+    }
+
+    /**
+     * Export the sequence as a standard MIDI file to the given stream, without the MetaMessages used for visualisation.
+     *
+     * @param stream The stream to write to. It is not closed.
+     * @throws IOException If the stream could not be written, or there is no sequenced track to write
+     */
+    public void writeSequence(OutputStream stream) throws IOException {
+        checkNotEmpty();
+        timeline.write(Channels.newChannel(stream), false);
+    }
+
+    private void checkNotEmpty() throws IOException {
+        if (isEmpty()) {
+            throw new IOException("There is nothing to export: no tracks have been sequenced.");
+        }
+    }
+
+    /**
+     * Open a file to which notes can be streamed as they are computed, rather than sequenced first and then written
+     * with {@link #writeSequence(File)}. Channels are assigned to instruments as for sequencing.
+     *
+     * @param file The MIDI file to write
+     * @return The stream, which must be closed to complete the file
+     * @throws IOException If the file could not be opened
+     */
+    public MIDIFileStream openFileStream(File file) throws IOException {
+        return new MIDIFileStream(this, file);
+    }
+
+    /**
+     * Open the synthesiser, so that notes can be played as they are computed, rather than sequenced first and then
+     * played with {@link #play()}. Channels are assigned to instruments as for sequencing.
+     *
+     * @return The stream, which should be closed when playback ends, to stop any notes still sounding
+     * @throws MidiUnavailableException If the synthesiser could not be opened
+     */
+    public LiveSynthStream openLiveStream() throws MidiUnavailableException {
+        if (synth == null) {
+            synth = getSynthesizer();
         }
+        if (!(synth.isOpen())) {
+            synth.open();
+        }
+        return new LiveSynthStream(this, synth);
+    }
+
+    /**
+     * @return Has nothing been sequenced? e.g. when the loaded file only defines networks, and plays no tracks.
+     */
+    public boolean isEmpty() {
+        return timeline.getTrackCount() == 0;
+    }
 
+    /**
+     * Choose whether {@link #play()} should start the sequencer. Playback is disabled when the sequence is only to be
+     * exported, so that no MIDI devices are opened.
+     *
+     * @param playbackEnabled false to make play() do nothing
+     */
+    public void setPlaybackEnabled(boolean playbackEnabled) {
+        this.playbackEnabled = playbackEnabled;
     }
 
     /**
@@ -246,17 +333,16 @@ public class SoundMaker {
      */
     public void clear() {
         if (sequencer != null) {
-            sequencer.removeMetaEventListener(midiMetaListener);
+            sequencer.removeMetaEventListener(transportClock);
             sequencer.close();
         }
         if (synth != null) {
             synth.close();
         }
-        for (Track t : sequence.getTracks()) {
-            sequence.deleteTrack(t);
-        }
+        timeline.clear();
+        sequence = null;
         this.instrumentChannelMap.clear();
-        tickCountHashMap.clear();
+        transportClock.clear();
         netTrackMap.clear();
         channelCount = 0;
     }
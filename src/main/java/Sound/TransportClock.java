@@ -0,0 +1,169 @@
+package Sound;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaEventListener;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps the visualisation in time with playback. During playback a single clock track sends one small MetaMessage per
+ * time step, carrying the step number as a 4-byte integer. From the step, the clock works out how far through its own
+ * states each network is, and passes that on to its {@link TransportListener}s, so that no per-network messages need
+ * to be sequenced, and nothing is encoded as, or parsed from, a string.
+ *
+ * Each time a network is sequenced for a number of steps, those steps are recorded as a segment of the network's beats,
+ * numbered on from the network's previous beats (so that they match the network's saved states, which are appended in
+ * the same way).
+ */
+public class TransportClock implements MetaEventListener {
+
+    //A sequencer-specific MetaMessage, whose data starts with the ID reserved for non-commercial use
+    private static final int CLOCK_META_TYPE = 0x7F;
+    private static final byte CLOCK_MANUFACTURER_ID = 0x7D;
+    private static final int CLOCK_DATA_LENGTH = 5;
+
+    /**
+     * Notified of each time step reached during playback
+     */
+    public interface TransportListener {
+        /**
+         * @param clock The clock, from which the position of each network at the step can be found
+         * @param step  The time step which has been reached
+         */
+        void transportStep(TransportClock clock, int step);
+    }
+
+    //The beats sequenced for a single network
+    private static class NetworkBeats {
+        //For each segment, the first time step, the number of steps, and the beat number of the first step
+        private int[] starts = new int[4];
+        private int[] counts = new int[4];
+        private int[] firstBeats = new int[4];
+        private int segmentCount = 0;
+        //The total number of beats in all the segments
+        private int beatCount = 0;
+    }
+
+    private final HashMap<String, NetworkBeats> networkBeats = new HashMap<>();
+
+    private final CopyOnWriteArrayList<TransportListener> listeners = new CopyOnWriteArrayList<>();
+
+    //One after the last time step of any network's beats
+    private int length = 0;
+
+    /**
+     * Record that the given network is played for a number of time steps
+     *
+     * @param networkName The name of the network
+     * @param startStep   The time step of the first beat
+     * @param count       How many beats are played
+     */
+    public synchronized void addBeats(String networkName, int startStep, int count) {
+        NetworkBeats beats = networkBeats.get(networkName);
+        if (beats == null) {
+            beats = new NetworkBeats();
+            networkBeats.put(networkName, beats);
+        }
+        int segment = beats.segmentCount;
+        if (segment == beats.starts.length) {
+            beats.starts = Arrays.copyOf(beats.starts, segment * 2);
+            beats.counts = Arrays.copyOf(beats.counts, segment * 2);
+            beats.firstBeats = Arrays.copyOf(beats.firstBeats, segment * 2);
+        }
+        beats.starts[segment] = startStep;
+        beats.counts[segment] = count;
+        beats.firstBeats[segment] = beats.beatCount;
+        beats.segmentCount++;
+        beats.beatCount += count;
+        length = Math.max(length, startStep + count);
+    }
+
+    /**
+     * @param networkName The name of a network
+     * @param step        A time step
+     * @return The number of the network's beat being played at the given time step, or -1 if the network isn't being
+     * played. If the network is played more than once at the same step, the beat sequenced last is given.
+     */
+    public synchronized int getNetworkPosition(String networkName, int step) {
+        NetworkBeats beats = networkBeats.get(networkName);
+        if (beats == null) {
+            return -1;
+        }
+        for (int segment = beats.segmentCount - 1; segment >= 0; segment--) {
+            int offset = step - beats.starts[segment];
+            if (offset >= 0 && offset < beats.counts[segment]) {
+                return beats.firstBeats[segment] + offset;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return One after the last time step at which any network is played
+     */
+    public synchronized int getLength() {
+        return length;
+    }
+
+    /**
+     * Add a track to the given sequence which sends a clock message at each time step
+     *
+     * @param sequence The sequence to be played
+     * @throws InvalidMidiDataException This should never occur
+     */
+    void addClockTrack(Sequence sequence) throws InvalidMidiDataException {
+        Track track = sequence.createTrack();
+        int steps = getLength();
+        for (int step = 0; step < steps; step++) {
+            byte[] data = {CLOCK_MANUFACTURER_ID, (byte) (step >>> 24), (byte) (step >>> 16), (byte) (step >>> 8), (byte) step};
+            track.add(new MidiEvent(new MetaMessage(CLOCK_META_TYPE, data, data.length), SoundMaker.getTick(step)));
+        }
+    }
+
+    /**
+     * Called by the sequencer for every MetaMessage during playback. Clock messages are passed on to the listeners,
+     * and any other messages are ignored.
+     */
+    @Override
+    public void meta(MetaMessage meta) {
+        if (meta.getType() != CLOCK_META_TYPE) {
+            return;
+        }
+        byte[] data = meta.getData();
+        if (data.length != CLOCK_DATA_LENGTH || data[0] != CLOCK_MANUFACTURER_ID) {
+            return;
+        }
+        int step = ((data[1] & 0xFF) << 24) | ((data[2] & 0xFF) << 16) | ((data[3] & 0xFF) << 8) | (data[4] & 0xFF);
+        publish(step);
+    }
+
+    /**
+     * Tell every listener that the given time step has been reached
+     */
+    public void publish(int step) {
+        for (TransportListener listener : listeners) {
+            listener.transportStep(this, step);
+        }
+    }
+
+    public void addListener(TransportListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(TransportListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Forget the beats of every network. The listeners are kept.
+     */
+    public synchronized void clear() {
+        networkBeats.clear();
+        length = 0;
+    }
+}
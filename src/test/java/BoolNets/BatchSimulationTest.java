@@ -0,0 +1,80 @@
+package BoolNets;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link BatchSimulation}, through {@link BooleanNetwork#simulateStartStates(ArrayList, int)}, gives each
+ * lane the same states as running the network on its own from that lane's start state. The named start states are
+ * repeated over more than 64 lanes, so that every node's lanes take more than one word.
+ */
+public class BatchSimulationTest {
+
+    //How many time steps of each lane to compare
+    private static final int STEPS = 200;
+
+    //How many lanes to simulate, which is more than fit in one word
+    private static final int LANES = 70;
+
+    private static final String[] EXAMPLES = {
+            "examples/Demo Networks/C_Major_Arpeggiated",
+            "examples/Demo Networks/C_Major_Sustained_Pattern",
+            "examples/Demo Networks/Example_Sequence",
+            "examples/Hello World/sequence"
+    };
+
+    @Test
+    public void batchMatchesSingleStartStates() throws Exception {
+        int comparedNetworks = 0;
+        for (String example : EXAMPLES) {
+            Session session = load(example);
+            Iterator<BooleanNetwork> networks = session.getNetworkCollection().getNetworksIterator();
+            while (networks.hasNext()) {
+                BooleanNetwork network = networks.next();
+                ArrayList<String> stateNames = network.getStartStateNames();
+                if (stateNames.isEmpty()) {
+                    continue;
+                }
+                ArrayList<String> laneStates = new ArrayList<>();
+                for (int lane = 0; lane < LANES; lane++) {
+                    laneStates.add(stateNames.get(lane % stateNames.size()));
+                }
+                BatchSimulation simulation = network.simulateStartStates(laneStates, STEPS);
+                assertEquals(example + ": lane count", LANES, simulation.getLaneCount());
+                assertEquals(example + ": length", STEPS + 1, simulation.getLength());
+
+                BooleanNode[] nodes = network.getSortedNodes();
+                for (int lane = 0; lane < LANES; lane++) {
+                    String description = example + ", network " + network.getName() + ", lane " + Integer.toString(lane)
+                            + " from " + laneStates.get(lane);
+                    network.setStartState(laneStates.get(lane));
+                    for (BooleanNode node : nodes) {
+                        for (int step = 0; step <= STEPS; step++) {
+                            assertEquals(description + ", node " + node.getID().getLabel() + ", step " + Integer.toString(step),
+                                    node.getStateAtTransportPosition(step),
+                                    simulation.getState(lane, step, node));
+                        }
+                    }
+                }
+                comparedNetworks++;
+            }
+        }
+        assertTrue("None of the examples has a named start state", comparedNetworks > 0);
+    }
+
+    private static Session load(String example) throws Exception {
+        File file = new File(example);
+        assertTrue("The example " + example + " is missing", file.isFile());
+        Session session = new Session();
+        session.getSoundMaker().setPlaybackEnabled(false);
+        session.load(file.getPath());
+        assertEquals(example + " could not be parsed", 0, session.getLoadErrorCount());
+        return session;
+    }
+}
@@ -0,0 +1,177 @@
+package BoolNets;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the compiled engine (see {@link CompiledNetwork}) and the node-by-node engine chosen by
+ * {@link BooleanNetwork#setCompiledEngine(boolean)} compute the same states for the example networks, from the start
+ * state each file leaves them in and from each of their named start states. The comparison is made both with the
+ * compiled tables and with the step code made by {@link StepFunctionGenerator}. Since the examples don't use every
+ * kind of vertex function the generator treats specially, random networks are compared as well.
+ */
+public class CompiledEngineTest {
+
+    //How many time steps of each network to compare
+    private static final int STEPS = 300;
+
+    //How many random networks to compare, and the most nodes and inputs they have
+    private static final int RANDOM_NETWORKS = 40;
+    private static final int RANDOM_MAX_NODES = 300;
+    private static final int RANDOM_MAX_ARITY = 10;
+
+    private static final String[] EXAMPLES = {
+            "examples/Demo Networks/C_Major_Arpeggiated",
+            "examples/Demo Networks/C_Major_Sustained_Pattern",
+            "examples/Demo Networks/Example_Sequence",
+            "examples/Hello World/sequence"
+    };
+
+    @Test
+    public void compiledEngineMatchesInterpretedEngine() throws Exception {
+        compareEngines(false);
+    }
+
+    @Test
+    public void generatedStepFunctionMatchesInterpretedEngine() throws Exception {
+        compareEngines(true);
+    }
+
+    @Test
+    public void generatedStepFunctionMatchesInterpretedEngineOnRandomNetworks() throws Exception {
+        for (long seed = 1; seed <= RANDOM_NETWORKS; seed++) {
+            BooleanNetwork generated = makeRandomNetwork(seed);
+            BooleanNetwork interpreted = makeRandomNetwork(seed);
+            generated.setCompiledEngine(true);
+            generated.setGeneratedStepFunction(true);
+            interpreted.setCompiledEngine(false);
+            assertSameStates("Random network " + Long.toString(seed), generated, interpreted);
+        }
+    }
+
+    /**
+     * Make a network with random vertex functions of up to {@link #RANDOM_MAX_ARITY} inputs, including copies and
+     * negations of a single input, connected at random. A few nodes are left without a vertex function.
+     * @param seed The same seed always makes the same network
+     */
+    private static BooleanNetwork makeRandomNetwork(long seed) throws Exception {
+        Random random = new Random(seed);
+        BooleanNetwork network = new BooleanNetwork(null, "random");
+        int nodeCount = 1 + random.nextInt(RANDOM_MAX_NODES);
+        for (int n = 0; n < nodeCount; n++) {
+            network.addNode(random.nextBoolean(), null, "n" + Integer.toString(n));
+        }
+
+        addVertexFunction(network, "copy", 1, false, new Boolean[][]{{true}}, new boolean[]{true});
+        addVertexFunction(network, "not", 1, true, new Boolean[][]{{true}}, new boolean[]{false});
+        for (int arity = 1; arity <= RANDOM_MAX_ARITY; arity++) {
+            //Each rule fixes some of the inputs, and leaves the others (null) free
+            Boolean[][] inputs = new Boolean[random.nextInt(6)][arity];
+            boolean[] outputs = new boolean[inputs.length];
+            for (int r = 0; r < inputs.length; r++) {
+                for (int j = 0; j < arity; j++) {
+                    int value = random.nextInt(3);
+                    inputs[r][j] = value == 0 ? null : value == 1;
+                }
+                outputs[r] = random.nextBoolean();
+            }
+            addVertexFunction(network, "f" + Integer.toString(arity), arity, random.nextBoolean(), inputs, outputs);
+        }
+
+        for (int n = 0; n < nodeCount; n++) {
+            int kind = random.nextInt(RANDOM_MAX_ARITY + 3);
+            if (kind == 0) {
+                continue;
+            }
+            int arity = kind <= 2 ? 1 : kind - 2;
+            String function = kind == 1 ? "copy" : kind == 2 ? "not" : "f" + Integer.toString(arity);
+            ArrayList<String> inputNodes = new ArrayList<>();
+            for (int j = 0; j < arity; j++) {
+                inputNodes.add("n" + Integer.toString(random.nextInt(nodeCount)));
+            }
+            network.setNamedNodeVertexFunction("n" + Integer.toString(n), function, inputNodes);
+        }
+        return network;
+    }
+
+    private static void addVertexFunction(BooleanNetwork network, String name, int arity, boolean defaultValue,
+                                          Boolean[][] inputs, boolean[] outputs) throws Exception {
+        String[] argumentNames = new String[arity];
+        for (int j = 0; j < arity; j++) {
+            argumentNames[j] = "a" + Integer.toString(j);
+        }
+        ArrayList<Boolean[]> ruleInputs = new ArrayList<>();
+        ArrayList<Boolean> ruleOutputs = new ArrayList<>();
+        for (int r = 0; r < inputs.length; r++) {
+            ruleInputs.add(inputs[r]);
+            ruleOutputs.add(outputs[r]);
+        }
+        network.addVertexFunction(arity, name, argumentNames, defaultValue).setRules(ruleInputs, ruleOutputs);
+    }
+
+    /**
+     * @param generated Should the compiled engine step each network with generated code?
+     */
+    private static void compareEngines(boolean generated) throws Exception {
+        for (String example : EXAMPLES) {
+            Session compiled = load(example);
+            Session interpreted = load(example);
+
+            Iterator<BooleanNetwork> networks = compiled.getNetworkCollection().getNetworksIterator();
+            assertTrue(example + " loads no networks", networks.hasNext());
+            while (networks.hasNext()) {
+                BooleanNetwork compiledNetwork = networks.next();
+                BooleanNetwork interpretedNetwork = interpreted.getNetworkCollection().getNetwork(compiledNetwork.getName());
+                compiledNetwork.setCompiledEngine(true);
+                compiledNetwork.setGeneratedStepFunction(generated);
+                if (generated) {
+                    //Generation falls back to the tables silently, which would make the comparison below say nothing
+                    assertFalse(example + ": no step code could be generated for " + compiledNetwork.getName(),
+                            StepFunctionGenerator.generate(compiledNetwork.getCompiledNetwork()) instanceof CompiledNetwork);
+                }
+                interpretedNetwork.setCompiledEngine(false);
+
+                String description = example + ", network " + compiledNetwork.getName();
+                assertSameStates(description, compiledNetwork, interpretedNetwork);
+                for (String stateName : compiledNetwork.getStartStateNames()) {
+                    compiledNetwork.setStartState(stateName);
+                    interpretedNetwork.setStartState(stateName);
+                    assertSameStates(description + " from " + stateName, compiledNetwork, interpretedNetwork);
+                }
+            }
+        }
+    }
+
+    private static Session load(String example) throws Exception {
+        File file = new File(example);
+        assertTrue("The example " + example + " is missing", file.isFile());
+        Session session = new Session();
+        session.getSoundMaker().setPlaybackEnabled(false);
+        session.load(file.getPath());
+        assertEquals(example + " could not be parsed", 0, session.getLoadErrorCount());
+        return session;
+    }
+
+    private static void assertSameStates(String description, BooleanNetwork compiled, BooleanNetwork interpreted) {
+        BooleanNode[] compiledNodes = compiled.getSortedNodes();
+        BooleanNode[] interpretedNodes = interpreted.getSortedNodes();
+        assertEquals(description + ": node count", compiledNodes.length, interpretedNodes.length);
+        for (int n = 0; n < compiledNodes.length; n++) {
+            String label = compiledNodes[n].getID().getLabel();
+            assertEquals(description + ": node order", label, interpretedNodes[n].getID().getLabel());
+            for (int step = 0; step <= STEPS; step++) {
+                assertEquals(description + ", node " + label + ", step " + Integer.toString(step),
+                        interpretedNodes[n].getStateAtTransportPosition(step),
+                        compiledNodes[n].getStateAtTransportPosition(step));
+            }
+        }
+    }
+}